@@ -0,0 +1,187 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Growable bit array packed into 64 bit words. Unlike {@link java.util.BitSet}
+ * it supports shifting ranges, which is needed to insert and remove rows.
+ *
+ * @author karl
+ *
+ */
+final class BitVector {
+
+  private long[] _words = new long[0];
+
+  boolean get(int index) {
+    final int word = index >>> 6;
+    if (word >= _words.length)
+      return false;
+
+    return (_words[word] & (1L << index)) != 0;
+  }
+
+  long word(int wordIndex) {
+    if (wordIndex >= _words.length)
+      return 0L;
+
+    return _words[wordIndex];
+  }
+
+  /**
+   * Returns the words as a buffer backed by this vector.
+   */
+  LongBuffer words() {
+    return LongBuffer.wrap(_words);
+  }
+
+  void set(int index, boolean value) {
+    final int word = index >>> 6;
+    if (word >= _words.length) {
+      if (!value)
+        return;
+
+      resize(index + 1);
+    }
+
+    if (value) {
+      _words[word] |= (1L << index);
+    } else {
+      _words[word] &= ~(1L << index);
+    }
+  }
+
+  /**
+   * Writes the words holding the first size bits.
+   */
+  void write(WriteBuffer buffer, int size) {
+    final int length = (size + 63) >>> 6;
+    final long[] words = _words.length < length ? Arrays.copyOf(_words,
+        length) : _words;
+    buffer.putLongs(words, 0, length);
+  }
+
+  void read(ReadBuffer buffer, int size) {
+    final int length = (size + 63) >>> 6;
+    if (_words.length < length)
+      _words = Arrays.copyOf(_words, length);
+    buffer.getLongs(_words, 0, length);
+  }
+
+  void resize(int capacity) {
+    final int length = (capacity + 63) >>> 6;
+    if (length != _words.length)
+      _words = Arrays.copyOf(_words, length);
+  }
+
+  /**
+   * Clears the bits in the range a word at a time.
+   */
+  void clear(int fromIndex, int toIndex) {
+    toIndex = Math.min(toIndex, _words.length << 6);
+    if (fromIndex >= toIndex)
+      return;
+
+    final int first = fromIndex >>> 6;
+    final int last = (toIndex - 1) >>> 6;
+    final long firstMask = -1L << fromIndex;
+    final long lastMask = -1L >>> -toIndex;
+    if (first == last) {
+      _words[first] &= ~(firstMask & lastMask);
+      return;
+    }
+
+    _words[first] &= ~firstMask;
+    Arrays.fill(_words, first + 1, last, 0L);
+    _words[last] &= ~lastMask;
+  }
+
+  /**
+   * Moves the bits in the range to the destination 64 at a time, the ranges
+   * may overlap.
+   */
+  void move(int srcIndex, int destIndex, int length) {
+    if (srcIndex == destIndex || length <= 0)
+      return;
+
+    if (((destIndex + length + 63) >>> 6) > _words.length)
+      resize(destIndex + length);
+
+    if (destIndex < srcIndex) {
+      for (int i = 0; i < length; i += 64)
+        setBits(destIndex + i, bits(srcIndex + i), Math.min(64, length - i));
+    } else {
+      for (int end = length; end > 0; end -= 64) {
+        final int i = Math.max(0, end - 64);
+        setBits(destIndex + i, bits(srcIndex + i), end - i);
+      }
+    }
+  }
+
+  void copy(BitVector source) {
+    _words = source._words.clone();
+  }
+
+  void gather(int[] order) {
+    final long[] words = new long[Math.max(_words.length,
+        (order.length + 63) >>> 6)];
+    for (int i = 0; i < order.length; i++) {
+      if (get(order[i]))
+        words[i >>> 6] |= (1L << i);
+    }
+    _words = words;
+  }
+
+  /**
+   * Returns the 64 bits starting at the index, which need not be aligned to
+   * a word.
+   */
+  private long bits(int index) {
+    final int word = index >>> 6;
+    final int shift = index & 63;
+    if (shift == 0)
+      return word(word);
+
+    return (word(word) >>> shift) | (word(word + 1) << (64 - shift));
+  }
+
+  /**
+   * Sets the count lowest bits, at most 64, starting at the index.
+   */
+  private void setBits(int index, long bits, int count) {
+    final int word = index >>> 6;
+    final int shift = index & 63;
+    final long mask = -1L >>> (64 - count);
+    bits &= mask;
+    _words[word] = (_words[word] & ~(mask << shift)) | (bits << shift);
+    if (shift + count > 64) {
+      final int remaining = 64 - shift;
+      _words[word + 1] = (_words[word + 1] & ~(mask >>> remaining))
+          | (bits >>> remaining);
+    }
+  }
+
+
+}
@@ -0,0 +1,151 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.LongBuffer;
+import java.util.Comparator;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Stores {@link Type#BOOLEAN} values as packed bits.
+ *
+ * @author karl
+ *
+ */
+final class BooleanVector extends ColumnVector {
+
+  private final BitVector _values = new BitVector();
+
+  @Override
+  Type type() {
+    return Type.BOOLEAN;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof Boolean;
+  }
+
+  boolean getBoolean(int index) {
+    return _values.get(index);
+  }
+
+  @Override
+  long doHashKey(int index) {
+    return _values.get(index) ? 1L : 0L;
+  }
+
+  @Override
+  Object getValue(int index) {
+    return Boolean.valueOf(_values.get(index));
+  }
+
+  @Override
+  void setValue(int index, Object value) {
+    if (!supports(value))
+      throw new IllegalArgumentException();
+
+    _values.set(index, ((Boolean) value).booleanValue());
+  }
+
+  @Override
+  void setValues(int index, Object values) {
+    if (!(values instanceof boolean[]))
+      throw new IllegalArgumentException();
+
+    final boolean[] booleans = (boolean[]) values;
+    for (int i = 0; i < booleans.length; i++)
+      _values.set(index + i, booleans[i]);
+  }
+
+  @Override
+  long[] doSortKeys() {
+    return sortKeys(this, _values.words());
+  }
+
+  @Override
+  int doCompareValues(int index1, int index2, Comparator<Object> comparator) {
+    return Boolean.compare(_values.get(index1), _values.get(index2));
+  }
+
+  @Override
+  ColumnVector copyValues() {
+    final BooleanVector copy = new BooleanVector();
+    copy._values.copy(_values);
+    return copy;
+  }
+
+  @Override
+  void resizeValues(int capacity) {
+    _values.resize(capacity);
+  }
+
+  @Override
+  void moveValues(int srcIndex, int destIndex, int length) {
+    _values.move(srcIndex, destIndex, length);
+  }
+
+  @Override
+  void clearValues(int fromIndex, int toIndex) {
+    _values.clear(fromIndex, toIndex);
+  }
+
+  @Override
+  void gatherValues(int[] order) {
+    _values.gather(order);
+  }
+
+  @Override
+  void writeValues(WriteBuffer buffer, int size) {
+    _values.write(buffer, size);
+  }
+
+  @Override
+  void readValues(ReadBuffer buffer, int size) {
+    _values.read(buffer, size);
+  }
+
+  /**
+   * Returns the bit of the index in words packed like {@link BitVector}.
+   */
+  static boolean get(LongBuffer words, int index) {
+    final int word = index >>> 6;
+    return word < words.limit() && (words.get(word) & (1L << index)) != 0;
+  }
+
+  /**
+   * Returns the sort keys of the values of a boolean vector whose gap is
+   * closed, see {@link ColumnVector#sortKeys()}.
+   */
+  static long[] sortKeys(ColumnVector vector, LongBuffer words) {
+    final long[] keys = new long[vector.size()];
+    for (int i = 0; i < keys.length; i++) {
+      if (vector.isNull(i)) {
+        keys[i] = NULL_KEY;
+      } else {
+        keys[i] = get(words, i) ? 1L : 0L;
+      }
+    }
+    return keys;
+  }
+
+}
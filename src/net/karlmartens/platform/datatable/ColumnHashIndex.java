@@ -0,0 +1,185 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash index on a {@link ColumnVector} mapping every distinct value, including
+ * null, to the ascending list of rows holding it. Equality lookups cost time
+ * proportional to the number of matching rows.
+ * <p>
+ * Like {@link ColumnIndex} it is maintained by the vector as rows are
+ * inserted, removed and updated, and rebuilt lazily after the rows are
+ * reordered.
+ *
+ * @author karl
+ *
+ */
+final class ColumnHashIndex {
+
+  private final ColumnVector _vector;
+  private final Map<Object, RowList> _rows = new HashMap<Object, RowList>();
+
+  private boolean _valid = false;
+
+  ColumnHashIndex(ColumnVector vector) {
+    _vector = vector;
+  }
+
+  /**
+   * Returns the rows whose value is contained in the set. Matches
+   * {@link ValueDataTableFilter#accepts(DataTableRow)}.
+   */
+  BitSet values(Set<Object> values) {
+    validate();
+    final BitSet rows = new BitSet();
+    for (Object value : values) {
+      final RowList list = _rows.get(value);
+      if (list == null)
+        continue;
+
+      for (int i = 0; i < list._size; i++)
+        rows.set(list._rows[i]);
+    }
+    return rows;
+  }
+
+  /**
+   * Moves the row from the list of its previous value to the list of the value
+   * now held by the vector.
+   */
+  void update(int row, Object previous) {
+    if (!_valid)
+      return;
+
+    final RowList list = _rows.get(previous);
+    list.remove(row);
+    if (list._size == 0)
+      _rows.remove(previous);
+
+    list(_vector.get(row)).add(row);
+  }
+
+  /**
+   * Shifts the rows after the insertion point and adds the inserted rows,
+   * which are null.
+   */
+  void insert(int row, int count) {
+    if (!_valid)
+      return;
+
+    for (RowList list : _rows.values())
+      list.shift(row, count);
+
+    final RowList list = list(null);
+    for (int i = 0; i < count; i++)
+      list.add(row + i);
+  }
+
+  void remove(int row, int count) {
+    if (!_valid)
+      return;
+
+    final Iterator<RowList> it = _rows.values().iterator();
+    while (it.hasNext()) {
+      final RowList list = it.next();
+      list.remove(row, count);
+      if (list._size == 0)
+        it.remove();
+    }
+  }
+
+  void invalidate() {
+    _valid = false;
+    _rows.clear();
+  }
+
+  void validate() {
+    if (_valid)
+      return;
+
+    for (int row = 0; row < _vector.size(); row++)
+      list(_vector.get(row)).append(row);
+    _valid = true;
+  }
+
+  private RowList list(Object value) {
+    RowList list = _rows.get(value);
+    if (list == null) {
+      list = new RowList();
+      _rows.put(value, list);
+    }
+    return list;
+  }
+
+  /**
+   * Ascending list of row indices.
+   */
+  private static final class RowList {
+
+    private int[] _rows = new int[2];
+    private int _size = 0;
+
+    void append(int row) {
+      if (_size == _rows.length)
+        _rows = Arrays.copyOf(_rows, _size * 2);
+
+      _rows[_size++] = row;
+    }
+
+    void add(int row) {
+      final int index = -Arrays.binarySearch(_rows, 0, _size, row) - 1;
+      append(row);
+      System.arraycopy(_rows, index, _rows, index + 1, _size - index - 1);
+      _rows[index] = row;
+    }
+
+    void remove(int row) {
+      final int index = Arrays.binarySearch(_rows, 0, _size, row);
+      System.arraycopy(_rows, index + 1, _rows, index, _size - index - 1);
+      _size--;
+    }
+
+    void remove(int row, int count) {
+      final int from = lowerBound(row);
+      final int to = lowerBound(row + count);
+      System.arraycopy(_rows, to, _rows, from, _size - to);
+      _size -= to - from;
+      for (int i = from; i < _size; i++)
+        _rows[i] -= count;
+    }
+
+    void shift(int row, int count) {
+      for (int i = lowerBound(row); i < _size; i++)
+        _rows[i] += count;
+    }
+
+    private int lowerBound(int row) {
+      final int index = Arrays.binarySearch(_rows, 0, _size, row);
+      return index < 0 ? -index - 1 : index;
+    }
+  }
+
+}
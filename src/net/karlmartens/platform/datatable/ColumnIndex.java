@@ -0,0 +1,220 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * Sorted secondary index on a {@link ColumnVector}. Rows are kept ordered by
+ * the column type's comparator, nulls first and ties on the row index, so that
+ * range and value predicates resolve to a slice found by binary search.
+ * <p>
+ * The index is maintained by the vector as rows are inserted, removed and
+ * updated. Operations that move every row, such as sorting the table, only
+ * invalidate it and it is rebuilt on the next lookup.
+ *
+ * @author karl
+ *
+ */
+final class ColumnIndex {
+
+  private final ColumnVector _vector;
+
+  // Comparators are not thread safe, this one is only used by the updates of
+  // the writing thread, every lookup creates its own
+  private final Comparator<Object> _comparator;
+
+  private int[] _rows = new int[0];
+  private int _size = 0;
+  private boolean _valid = false;
+
+  ColumnIndex(ColumnVector vector) {
+    _vector = vector;
+    _comparator = vector.type().comparator();
+  }
+
+  /**
+   * Returns the rows whose value is greater than or equal to from and less
+   * than to, a null bound is unbounded. Matches
+   * {@link RangeDataTableFilter#accepts(DataTableRow)}.
+   */
+  BitSet range(Object from, Object to) {
+    validate();
+    final Comparator<Object> comparator = _vector.type().comparator();
+    final int fromIndex = from == null ? 0 : lowerBound(from, comparator);
+    final int toIndex = to == null ? _size : lowerBound(to, comparator);
+
+    final BitSet rows = new BitSet(_vector.size());
+    for (int i = fromIndex; i < toIndex; i++)
+      rows.set(_rows[i]);
+    return rows;
+  }
+
+  /**
+   * Returns the rows whose value is contained in the set. Matches
+   * {@link ValueDataTableFilter#accepts(DataTableRow)}.
+   */
+  BitSet values(Set<Object> values) {
+    validate();
+    final Comparator<Object> comparator = _vector.type().comparator();
+    final BitSet rows = new BitSet(_vector.size());
+    for (Object value : values) {
+      if (value != null && !_vector.supports(value))
+        continue;
+
+      for (int i = lowerBound(value, comparator); i < _size; i++) {
+        final Object candidate = _vector.get(_rows[i]);
+        if (comparator.compare(candidate, value) != 0)
+          break;
+
+        if (values.contains(candidate))
+          rows.set(_rows[i]);
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Returns the position of the row in the index, or -1 if the index is not
+   * built. Must be called while the vector still holds the indexed value.
+   */
+  int indexOf(int row) {
+    if (!_valid)
+      return -1;
+
+    return search(row);
+  }
+
+  /**
+   * Moves the row found at position to the place of its new value.
+   */
+  void update(int position, int row) {
+    if (!_valid)
+      return;
+
+    System.arraycopy(_rows, position + 1, _rows, position, _size - position
+        - 1);
+    _size--;
+
+    final int index = search(row);
+    System.arraycopy(_rows, index, _rows, index + 1, _size - index);
+    _rows[index] = row;
+    _size++;
+  }
+
+  /**
+   * Adds the rows inserted into the vector, they are null so they are placed
+   * with the other null rows.
+   */
+  void insert(int row, int count) {
+    if (!_valid)
+      return;
+
+    for (int i = 0; i < _size; i++) {
+      if (_rows[i] >= row)
+        _rows[i] += count;
+    }
+
+    if (_size + count > _rows.length)
+      _rows = Arrays.copyOf(_rows,
+          Math.max(_size + count, _rows.length * 3 / 2));
+
+    final int index = search(row);
+    System.arraycopy(_rows, index, _rows, index + count, _size - index);
+    for (int i = 0; i < count; i++)
+      _rows[index + i] = row + i;
+    _size += count;
+  }
+
+  void remove(int row, int count) {
+    if (!_valid)
+      return;
+
+    int size = 0;
+    for (int i = 0; i < _size; i++) {
+      final int r = _rows[i];
+      if (r < row) {
+        _rows[size++] = r;
+      } else if (r >= row + count) {
+        _rows[size++] = r - count;
+      }
+    }
+    _size = size;
+  }
+
+  void invalidate() {
+    _valid = false;
+  }
+
+  void validate() {
+    if (_valid)
+      return;
+
+    final RowSorter sorter = new RowSorter(new ColumnVector[] { _vector },
+        new DataTableSort[] { new DataTableSort(0, false) });
+    _rows = sorter.sort(_vector.size());
+    _size = _rows.length;
+    _valid = true;
+  }
+
+  /**
+   * Returns the position of the first row whose value is not less than the
+   * value.
+   */
+  private int lowerBound(Object value, Comparator<Object> comparator) {
+    int low = 0;
+    int high = _size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparator.compare(_vector.get(_rows[mid]), value) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the position at which the row is, or belongs, in the index.
+   */
+  private int search(int row) {
+    final Object value = _vector.get(row);
+    int low = 0;
+    int high = _size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final int r = _rows[mid];
+      int c = _comparator.compare(_vector.get(r), value);
+      if (c == 0)
+        c = r < row ? -1 : (r == row ? 0 : 1);
+
+      if (c < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+}
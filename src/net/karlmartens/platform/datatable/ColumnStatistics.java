@@ -0,0 +1,248 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.karlmartens.platform.util.Range;
+
+/**
+ * Statistics of a {@link ColumnVector}: the rows holding the smallest and
+ * largest value, the number of null rows and an estimate of the number of
+ * distinct values.
+ * <p>
+ * The range and the distinct estimate are computed when first requested and
+ * from then on updated as rows are set, inserted and removed. Updates that
+ * can shrink the range, such as overwriting the row holding the minimum, or
+ * that remove values from the distinct estimate only mark that part stale, it
+ * is recomputed when next requested. The range is recomputed from the
+ * {@link ZoneMap}. The null count is always kept up to date.
+ *
+ * @author karl
+ *
+ */
+final class ColumnStatistics {
+
+  private static final int REGISTER_BITS = 10;
+  private static final int REGISTER_COUNT = 1 << REGISTER_BITS;
+
+  private final ColumnVector _vector;
+  private final byte[] _registers = new byte[REGISTER_COUNT];
+
+  private Comparator<Object> _comparator;
+  private int _nullCount = 0;
+  private int _min = -1;
+  private int _max = -1;
+  private boolean _rangeValid = false;
+  private boolean _distinctValid = false;
+
+  ColumnStatistics(ColumnVector vector) {
+    _vector = vector;
+  }
+
+  Range range() {
+    if (!_rangeValid) {
+      final int[] extremes = _vector.zoneMap().extremes(comparator());
+      _min = extremes[0];
+      _max = extremes[1];
+      _rangeValid = true;
+    }
+
+    return _vector.range(_min, _max);
+  }
+
+  int nullCount() {
+    return _nullCount;
+  }
+
+  /**
+   * Returns the HyperLogLog estimate of the number of distinct non null
+   * values.
+   */
+  int distinctCount() {
+    if (!_distinctValid) {
+      Arrays.fill(_registers, (byte) 0);
+      for (int i = 0; i < _vector.size(); i++) {
+        if (!_vector.isNull(i))
+          add(_vector.hashKey(i));
+      }
+      _distinctValid = true;
+    }
+
+    final int count = _vector.size() - _nullCount;
+    if (count == 0)
+      return 0;
+
+    double sum = 0.0;
+    int zeros = 0;
+    for (int i = 0; i < REGISTER_COUNT; i++) {
+      sum += 1.0 / (1L << _registers[i]);
+      if (_registers[i] == 0)
+        zeros++;
+    }
+
+    final double m = REGISTER_COUNT;
+    double estimate = 0.7213 / (1.0 + 1.079 / m) * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0)
+      estimate = m * Math.log(m / zeros);
+
+    return (int) Math.max(1L, Math.min(Math.round(estimate), count));
+  }
+
+  /**
+   * Accounts for the row that was just set.
+   */
+  void update(int index, boolean wasNull) {
+    final boolean isNull = _vector.isNull(index);
+    if (wasNull)
+      _nullCount--;
+
+    if (isNull)
+      _nullCount++;
+
+    if (!wasNull) {
+      _distinctValid = false;
+    } else if (!isNull && _distinctValid) {
+      add(_vector.hashKey(index));
+    }
+
+    if (!_rangeValid)
+      return;
+
+    if (index == _min || index == _max) {
+      _rangeValid = false;
+      return;
+    }
+
+    if (isNull)
+      return;
+
+    if (_min < 0) {
+      _min = index;
+      _max = index;
+      return;
+    }
+
+    // Of equal values the range holds the first minimum and the last maximum
+    final int min = _vector.compareValues(index, _min, comparator());
+    if (min < 0 || (min == 0 && index < _min))
+      _min = index;
+
+    final int max = _vector.compareValues(index, _max, comparator());
+    if (max > 0 || (max == 0 && index > _max))
+      _max = index;
+  }
+
+  /**
+   * Accounts for the null rows that were just inserted.
+   */
+  void insert(int index, int count) {
+    _nullCount += count;
+    if (_min >= index)
+      _min += count;
+
+    if (_max >= index)
+      _max += count;
+  }
+
+  /**
+   * Accounts for the rows about to be removed.
+   */
+  void remove(int index, int count) {
+    int nullCount = 0;
+    for (int i = index; i < index + count; i++) {
+      if (_vector.isNull(i))
+        nullCount++;
+    }
+
+    _nullCount -= nullCount;
+    if (nullCount < count)
+      _distinctValid = false;
+
+    if ((_min >= index && _min < index + count)
+        || (_max >= index && _max < index + count)) {
+      _rangeValid = false;
+      return;
+    }
+
+    if (_min >= index + count)
+      _min -= count;
+
+    if (_max >= index + count)
+      _max -= count;
+  }
+
+  /**
+   * Accounts for rows that were just set in bulk, the range and the distinct
+   * estimate are recomputed when next requested.
+   */
+  void load(int nullChange) {
+    _nullCount += nullChange;
+    _rangeValid = false;
+    _distinctValid = false;
+  }
+
+  /**
+   * The rows were loaded in bulk, the null count is recounted and the rest
+   * recomputed when next requested.
+   */
+  void reset() {
+    _nullCount = 0;
+    for (int i = 0; i < _vector.size(); i++) {
+      if (_vector.isNull(i))
+        _nullCount++;
+    }
+
+    _min = -1;
+    _max = -1;
+    _rangeValid = false;
+    _distinctValid = false;
+  }
+
+  /**
+   * The order of equal values changed so the range has to be recomputed.
+   */
+  void reorder() {
+    _rangeValid = false;
+  }
+
+  private Comparator<Object> comparator() {
+    if (_comparator == null)
+      _comparator = _vector.type().comparator();
+    return _comparator;
+  }
+
+  private void add(long key) {
+    // Finalizer of MurmurHash3 to spread the key over all bits
+    long hash = key;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    final int register = (int) (hash >>> (64 - REGISTER_BITS));
+    final byte rank = (byte) (Long.numberOfLeadingZeros(hash << REGISTER_BITS
+        | (1L << (REGISTER_BITS - 1))) + 1);
+    if (rank > _registers[register])
+      _registers[register] = rank;
+  }
+
+}
@@ -0,0 +1,588 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.lang.reflect.Array;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+import net.karlmartens.platform.util.Range;
+
+/**
+ * Column oriented storage for the values of a single {@link DataTable}
+ * column. Sub classes keep the values in primitive arrays, this class tracks
+ * which rows are null and holds the sparse formatted values and properties.
+ * <p>
+ * The unused capacity of the arrays forms a gap that follows the last insert
+ * or remove, the rows after the gap are stored at their index plus the length
+ * of the gap. Inserting or removing rows only moves the values between the
+ * previous and the current position, so rows streamed in at nearby positions
+ * do not shift the whole tail of the arrays. Row access is translated to the
+ * position in the arrays, see {@link #position(int)}. Methods of the sub
+ * classes taking an index are given the position.
+ * <p>
+ * The gap only saves the moves of the values. The methods accessing the rows
+ * in bulk (sort keys, filtering, reordering and serialization) close the gap
+ * first, so reads in bulk between inserts cost O(rows) each, and the sorted
+ * and hash indexes shift the row indices after every insert or remove.
+ * <p>
+ * The arrays of a vector whose rows were only inserted, such as a column just
+ * added to a table, are allocated when a row is first set or the rows are
+ * accessed in bulk, until then all rows are null.
+ * <p>
+ * A vector shared with a snapshot of its table is never changed again, see
+ * {@link #share()}, the table changes a {@link #copy()} instead.
+ *
+ * @author karl
+ *
+ */
+abstract class ColumnVector {
+
+  static final long NULL_KEY = Long.MIN_VALUE;
+
+  private final BitVector _nonNull = new BitVector();
+  private final LazyArray<String> _formattedValues = new LazyArray<String>();
+  private final LazyArray<Map<String, Object>> _properties = new LazyArray<Map<String, Object>>();
+  private final ZoneMap _zoneMap = new ZoneMap(this);
+  private final ColumnStatistics _statistics = new ColumnStatistics(this);
+
+  private int _size = 0;
+  private int _capacity = 0;
+  private int _gap = 0;
+  private boolean _shared = false;
+  private ColumnIndex _index;
+  private ColumnHashIndex _hashIndex;
+
+  abstract Type type();
+
+  final int size() {
+    return _size;
+  }
+
+  /**
+   * Returns the position of the row in the arrays.
+   */
+  final int position(int index) {
+    return index < _gap ? index : index + _capacity - _size;
+  }
+
+  final boolean isNull(int index) {
+    return !_nonNull.get(position(index));
+  }
+
+  final Object get(int index) {
+    if (isNull(index))
+      return null;
+
+    return getValue(position(index));
+  }
+
+  final void set(int index, Object value) {
+    final int position = _index == null ? -1 : _index.indexOf(index);
+    final Object previous = _hashIndex == null ? null : get(index);
+    final boolean wasNull = isNull(index);
+    allocate();
+    final int p = position(index);
+    _zoneMap.invalidate(index);
+    if (value == null) {
+      _nonNull.set(p, false);
+      clearValues(p, p + 1);
+    } else {
+      setValue(p, value);
+      _nonNull.set(p, true);
+    }
+    _statistics.update(index, wasNull);
+
+    if (_index != null)
+      _index.update(position, index);
+
+    if (_hashIndex != null)
+      _hashIndex.update(index, previous);
+  }
+
+  /**
+   * Sets consecutive rows starting at index to the elements of a primitive or
+   * string array, see {@link #setValues(int, Object)}. A row is null where its
+   * null flag is true or its element is null, nulls may be null.
+   */
+  final void load(int index, Object values, boolean[] nulls) {
+    final int length = Array.getLength(values);
+    if (nulls != null && nulls.length != length)
+      throw new IllegalArgumentException();
+
+    moveGap(_size);
+    setValues(index, values);
+
+    final Object[] elements = values instanceof Object[] ? (Object[]) values
+        : null;
+    int nullChange = 0;
+    for (int i = 0; i < length; i++) {
+      final boolean isNull = (nulls != null && nulls[i])
+          || (elements != null && elements[i] == null);
+      if (isNull)
+        clearValues(index + i, index + i + 1);
+
+      if (isNull != !_nonNull.get(index + i))
+        nullChange += isNull ? 1 : -1;
+      _nonNull.set(index + i, !isNull);
+    }
+
+    _zoneMap.invalidateFrom(index);
+    _statistics.load(nullChange);
+
+    if (_index != null)
+      _index.invalidate();
+
+    if (_hashIndex != null)
+      _hashIndex.invalidate();
+  }
+
+  final String formattedValue(int index) {
+    return _formattedValues.get(position(index));
+  }
+
+  final void formattedValue(int index, String formattedValue) {
+    allocate();
+    _formattedValues.set(position(index), formattedValue);
+  }
+
+  final Map<String, Object> properties(int index) {
+    Map<String, Object> properties = _properties.get(position(index));
+    if (properties == null) {
+      allocate();
+      properties = new HashMap<String, Object>();
+      _properties.set(position(index), properties);
+    }
+    return properties;
+  }
+
+  final boolean hasProperties(int index) {
+    final Map<String, Object> properties = _properties.get(position(index));
+    return properties != null && !properties.isEmpty();
+  }
+
+  final Object property(int index, String name) {
+    final Map<String, Object> properties = _properties.get(position(index));
+    if (properties == null)
+      return null;
+
+    return properties.get(name);
+  }
+
+  final void insert(int index, int count) {
+    if (_capacity == 0) {
+      _size += count;
+      _gap = _size;
+    } else {
+      if (_size + count > _capacity) {
+        moveGap(_size);
+        resize(Math.max(_size + count, _capacity * 3 / 2));
+      }
+
+      // The gap is kept clear, the inserted rows take its first positions
+      moveGap(index);
+      _gap += count;
+      _size += count;
+    }
+    _zoneMap.invalidateFrom(index);
+    _statistics.insert(index, count);
+
+    if (_index != null)
+      _index.insert(index, count);
+
+    if (_hashIndex != null)
+      _hashIndex.insert(index, count);
+  }
+
+  final void remove(int index, int count) {
+    final int end = Math.min(_size, index + count);
+    _statistics.remove(index, end - index);
+    moveGap(end);
+    clear(index, end);
+    _gap = index;
+    _size -= end - index;
+    _zoneMap.invalidateFrom(index);
+
+    if (_index != null)
+      _index.remove(index, end - index);
+
+    if (_hashIndex != null)
+      _hashIndex.remove(index, end - index);
+  }
+
+  final void reorder(int[] order) {
+    moveGap(_size);
+    _nonNull.gather(order);
+    _formattedValues.gather(order);
+    _properties.gather(order);
+    gatherValues(order);
+    _zoneMap.invalidateFrom(0);
+    _statistics.reorder();
+
+    if (_index != null)
+      _index.invalidate();
+
+    if (_hashIndex != null)
+      _hashIndex.invalidate();
+  }
+
+  /**
+   * Writes the null flags and the values of the rows in bulk. Formatted values
+   * and properties are written by {@link DataTableSerializer}.
+   */
+  final void write(WriteBuffer buffer) {
+    moveGap(_size);
+    _nonNull.write(buffer, _size);
+    writeValues(buffer, _size);
+  }
+
+  /**
+   * Reads the rows written by {@link #write(WriteBuffer)} over the null rows
+   * the vector already holds.
+   */
+  final void read(ReadBuffer buffer) {
+    moveGap(_size);
+    _nonNull.read(buffer, _size);
+    readValues(buffer, _size);
+    _zoneMap.invalidateFrom(0);
+    _statistics.reset();
+
+    if (_index != null)
+      _index.invalidate();
+
+    if (_hashIndex != null)
+      _hashIndex.invalidate();
+  }
+
+  /**
+   * Computes everything that is otherwise computed when first read, so that
+   * reading the vector changes no state and any number of threads can read
+   * it concurrently, and marks the vector shared.
+   */
+  final void share() {
+    if (_shared)
+      return;
+
+    moveGap(_size);
+    _zoneMap.validate(type().comparator());
+    _statistics.range();
+    _statistics.distinctCount();
+
+    if (_index != null)
+      _index.validate();
+
+    if (_hashIndex != null)
+      _hashIndex.validate();
+
+    prepareValues();
+    _shared = true;
+  }
+
+  final boolean isShared() {
+    return _shared;
+  }
+
+  /**
+   * Returns a vector holding the same rows that shares no state with this
+   * vector, the indexes are rebuilt when next used.
+   */
+  final ColumnVector copy() {
+    final ColumnVector copy = copyValues();
+    copy._size = _size;
+    copy._capacity = _capacity;
+    copy._gap = _gap;
+    copy._nonNull.copy(_nonNull);
+    copy._formattedValues.copy(_formattedValues);
+    copy._properties.copy(_properties);
+    if (!_properties.isEmpty()) {
+      for (int i = 0; i < _capacity; i++) {
+        final Map<String, Object> properties = _properties.get(i);
+        if (properties != null)
+          copy._properties.set(i, new HashMap<String, Object>(properties));
+      }
+    }
+    copy._statistics.reset();
+
+    if (_index != null)
+      copy.createIndex();
+
+    if (_hashIndex != null)
+      copy.createHashIndex();
+
+    return copy;
+  }
+
+  final ColumnIndex index() {
+    return _index;
+  }
+
+  final void createIndex() {
+    if (_index == null)
+      _index = new ColumnIndex(this);
+  }
+
+  final void removeIndex() {
+    _index = null;
+  }
+
+  final ColumnHashIndex hashIndex() {
+    return _hashIndex;
+  }
+
+  final void createHashIndex() {
+    if (_hashIndex == null)
+      _hashIndex = new ColumnHashIndex(this);
+  }
+
+  final void removeHashIndex() {
+    _hashIndex = null;
+  }
+
+  final Range range() {
+    return _statistics.range();
+  }
+
+  final int nullCount() {
+    return _statistics.nullCount();
+  }
+
+  final int distinctCount() {
+    return _statistics.distinctCount();
+  }
+
+  final ZoneMap zoneMap() {
+    return _zoneMap;
+  }
+
+  final Range range(int minIndex, int maxIndex) {
+    if (minIndex < 0)
+      return new Range(null, null);
+
+    return new Range(get(minIndex), get(maxIndex));
+  }
+
+  /**
+   * Clears the selection bit of every row in the range whose value is not
+   * greater than or equal to from and less than to, matching
+   * {@link RangeDataTableFilter}. Bit 0 of the selection is the row at
+   * fromIndex, which must be a multiple of 64.
+   */
+  final void selectRange(Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    moveGap(_size);
+    doSelectRange(from, to, fromIndex, toIndex, selection);
+  }
+
+  /**
+   * Clears the selection bit of every row in the range whose value is not in
+   * the set, matching {@link ValueDataTableFilter}.
+   */
+  final void selectValues(Set<Object> values, int fromIndex, int toIndex,
+      long[] selection) {
+    moveGap(_size);
+    doSelectValues(values, fromIndex, toIndex, selection);
+  }
+
+  /**
+   * Returns a key for every row whose natural ordering matches the ordering of
+   * the column type's comparator. Null values are given {@link #NULL_KEY} so
+   * they sort first.
+   */
+  final long[] sortKeys() {
+    moveGap(_size);
+    return doSortKeys();
+  }
+
+  /**
+   * Compares the non null values of two rows the same way as the comparator
+   * of the column type.
+   */
+  final int compareValues(int index1, int index2,
+      Comparator<Object> comparator) {
+    return doCompareValues(position(index1), position(index2), comparator);
+  }
+
+  /**
+   * Returns a key that is equal for rows with equal values, used to estimate
+   * the number of distinct values.
+   */
+  final long hashKey(int index) {
+    return doHashKey(position(index));
+  }
+
+  /**
+   * Returns the non null value of a {@link Type#NUMBER} row as a double.
+   */
+  final double getDouble(int index) {
+    return doGetDouble(position(index));
+  }
+
+  void doSelectRange(Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    final Comparator<Object> comparator = type().comparator();
+    for (int i = fromIndex; i < toIndex; i++) {
+      final int bit = i - fromIndex;
+      if ((selection[bit >>> 6] & (1L << bit)) == 0)
+        continue;
+
+      final Object value = get(i);
+      if ((from != null && comparator.compare(from, value) > 0)
+          || (to != null && comparator.compare(to, value) <= 0))
+        selection[bit >>> 6] &= ~(1L << bit);
+    }
+  }
+
+  void doSelectValues(Set<Object> values, int fromIndex, int toIndex,
+      long[] selection) {
+    for (int i = fromIndex; i < toIndex; i++) {
+      final int bit = i - fromIndex;
+      if ((selection[bit >>> 6] & (1L << bit)) != 0
+          && !values.contains(get(i)))
+        selection[bit >>> 6] &= ~(1L << bit);
+    }
+  }
+
+  /**
+   * Combines the range bits computed on the raw values of the 64 rows starting
+   * at index with the null bitmap. Null rows are only in range when there is
+   * no lower bound.
+   */
+  final long rangeWord(long bits, int index, boolean hasLowerBound) {
+    final long nonNull = _nonNull.word(index >>> 6);
+    if (hasLowerBound)
+      return bits & nonNull;
+
+    return bits | ~nonNull;
+  }
+
+  abstract long[] doSortKeys();
+
+  /**
+   * Returns true if the value can be stored in this column.
+   */
+  abstract boolean supports(Object value);
+
+  int doCompareValues(int index1, int index2, Comparator<Object> comparator) {
+    return comparator.compare(getValue(index1), getValue(index2));
+  }
+
+  long doHashKey(int index) {
+    return getValue(index).hashCode();
+  }
+
+  double doGetDouble(int index) {
+    return ((Number) getValue(index)).doubleValue();
+  }
+
+  abstract Object getValue(int index);
+
+  abstract void setValue(int index, Object value);
+
+  /**
+   * Stores the elements of the array from the index onwards, the elements of
+   * null rows may be left as they are. Sub classes accept the arrays matching
+   * their type, numbers as doubles or longs, booleans as booleans, strings as
+   * strings and dates and times as longs of milliseconds since the epoch.
+   */
+  void setValues(int index, Object values) {
+    throw new IllegalArgumentException();
+  }
+
+  /**
+   * Returns a new vector of the same type holding copies of the values.
+   */
+  abstract ColumnVector copyValues();
+
+  /**
+   * Computes the state of the values that is otherwise computed when first
+   * read, see {@link #share()}.
+   */
+  void prepareValues() {
+    // Nothing is computed on read by default
+  }
+
+  abstract void resizeValues(int capacity);
+
+  abstract void moveValues(int srcIndex, int destIndex, int length);
+
+  abstract void clearValues(int fromIndex, int toIndex);
+
+  abstract void gatherValues(int[] order);
+
+  abstract void writeValues(WriteBuffer buffer, int size);
+
+  abstract void readValues(ReadBuffer buffer, int size);
+
+  private void resize(int capacity) {
+    _capacity = capacity;
+    _nonNull.resize(capacity);
+    _formattedValues.resize(capacity);
+    _properties.resize(capacity);
+    resizeValues(capacity);
+  }
+
+  /**
+   * Moves the gap to the row at the index, the positions it leaves are
+   * cleared.
+   */
+  private void moveGap(int index) {
+    allocate();
+    if (index == _gap)
+      return;
+
+    final int length = _capacity - _size;
+    if (length > 0 && index < _gap) {
+      move(index, index + length, _gap - index);
+      clear(index, Math.min(_gap, index + length));
+    } else if (length > 0 && index > _gap) {
+      move(_gap + length, _gap, index - _gap);
+      clear(Math.max(index, _gap + length), index + length);
+    }
+    _gap = index;
+  }
+
+  /**
+   * Allocates the arrays of the null rows inserted before the vector held any
+   * value.
+   */
+  private void allocate() {
+    if (_capacity < _size)
+      resize(_size);
+  }
+
+  private void move(int srcIndex, int destIndex, int length) {
+    _nonNull.move(srcIndex, destIndex, length);
+    _formattedValues.move(srcIndex, destIndex, length);
+    _properties.move(srcIndex, destIndex, length);
+    moveValues(srcIndex, destIndex, length);
+  }
+
+  private void clear(int fromIndex, int toIndex) {
+    _nonNull.clear(fromIndex, toIndex);
+    _formattedValues.clear(fromIndex, toIndex);
+    _properties.clear(fromIndex, toIndex);
+    clearValues(fromIndex, toIndex);
+  }
+
+}
@@ -18,17 +18,28 @@
 
 package net.karlmartens.platform.datatable;
 
-import static net.karlmartens.platform.util.NullSafe.max;
-import static net.karlmartens.platform.util.NullSafe.min;
-
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import net.karlmartens.platform.datatable.DataTableColumn.Role;
 import net.karlmartens.platform.datatable.DataTableColumn.Type;
-import net.karlmartens.platform.util.ArrayIndexComparator;
 import net.karlmartens.platform.util.Range;
 
 import org.joda.time.LocalDate;
@@ -39,15 +50,38 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
+/**
+ * Table of typed columns compatible with the Google Charts DataTable. Values
+ * are stored column wise in primitive arrays (see {@link ColumnVector}),
+ * formatted values and properties are only allocated for the cells, rows and
+ * columns that use them.
+ * 
+ * @author karl
+ * 
+ */
 public class DataTable {
 
+  private static final int CHUNK_SIZE = ZoneMap.BLOCK_SIZE;
+  private static final String SORT = "sort";
+  private static final String PAGE = "page";
+  private static final String FILTER = "filter";
+
   private final Map<String, Object> _properties = new HashMap<String, Object>();
+  private final LazyArray<Map<String, Object>> _rowProperties = new LazyArray<Map<String, Object>>();
+  private final ResultCache _cache = new ResultCache();
 
   private int _columnCount = 0;
   private DataTableColumn[] _columns = new DataTableColumn[0];
+  private ColumnVector[] _vectors = new ColumnVector[0];
   private int _rowCount = 0;
-  private DataTableRow[] _rows = new DataTableRow[0];
+  private int _rowCapacity = 0;
+  private boolean _readOnly = false;
+  private int _modCount = 0;
 
   public int addColumn(Type type) {
     return addColumn(new DataTableColumn(type));
@@ -69,42 +103,139 @@ public class DataTable {
 
   public int addRow(Object... values) {
     final int index = _rowCount;
-    final DataTableRow row = new DataTableRow(_columnCount);
-    for (int i = 0; i < Math.min(_columnCount, values.length); i++) {
-      final Object value = values[i];
-      if (value instanceof DataTableCell) {
-        row.cell(i, (DataTableCell) value);
-      } else if (value instanceof String) {
-        row.cell(i).value((String) value);
-      } else if (value instanceof Number) {
-        row.cell(i).value((Number) value);
-      } else if (value instanceof Boolean) {
-        row.cell(i).value((Boolean) value);
-      } else if (value instanceof LocalDate) {
-        row.cell(i).value((LocalDate) value);
-      } else if (value instanceof LocalDateTime) {
-        row.cell(i).value((LocalDateTime) value);
-      } else if (value instanceof LocalTime) {
-        row.cell(i).value((LocalTime) value);
-      } else {
-        throw new UnsupportedOperationException();
-      }
+    insertRows(index, 1);
+    try {
+      setRow(index, values);
+    } catch (RuntimeException e) {
+      removeRows(index, 1);
+      throw e;
     }
-    insertRows(index, row);
     return index;
   }
 
   public void addRows(int numberOfRows) {
-    final DataTableRow[] newRows = new DataTableRow[numberOfRows];
-    for (int i = 0; i < numberOfRows; i++)
-      newRows[i] = new DataTableRow(_columnCount);
-    addRows(newRows);
+    insertRows(_rowCount, numberOfRows);
   }
 
   public void addRows(DataTableRow... rows) {
     insertRows(_rowCount, rows);
   }
 
+  /**
+   * Appends the declared number of rows and sets their values from the
+   * iterator as {@link #addRow(Object...)} does. The table grows once for all
+   * rows, the rows the iterator runs short of are removed again.
+   */
+  public void addRows(int numberOfRows, Iterator<Object[]> rows) {
+    if (numberOfRows < 0)
+      throw new IllegalArgumentException();
+
+    final int index = _rowCount;
+    insertRows(index, numberOfRows);
+    int row = index;
+    try {
+      for (; row < index + numberOfRows && rows.hasNext(); row++)
+        setRow(row, rows.next());
+    } catch (RuntimeException e) {
+      removeRows(index, numberOfRows);
+      throw e;
+    }
+
+    if (row < _rowCount)
+      removeRows(row, _rowCount - row);
+  }
+
+  /**
+   * Maintains a hash index on the column. {@link ValueDataTableFilter} on a
+   * hash indexed column is answered in time proportional to the number of
+   * matching rows.
+   */
+  public void createHashIndex(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    writable(columnIndex).createHashIndex();
+  }
+
+  /**
+   * Maintains a sorted index on the column. {@link RangeDataTableFilter} and
+   * {@link ValueDataTableFilter} on an indexed column are answered by binary
+   * search in {@link #getFilteredRows(DataTableFilter...)} instead of a scan.
+   */
+  public void createIndex(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    writable(columnIndex).createIndex();
+  }
+
+  /**
+   * Reads a table in the json format written by {@link #toJson(Writer)}. The
+   * json is decoded in a single pass straight into the column storage, the
+   * columns have to precede the rows. The reader is not closed.
+   */
+  public static DataTable fromJson(Reader reader) throws IOException {
+    final JsonReader json = new JsonReader(reader);
+    json.setLenient(true);
+
+    final DataTable table = new DataTable();
+    boolean hasColumns = false;
+    json.beginObject();
+    while (json.hasNext()) {
+      final String name = json.nextName();
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+      } else if ("cols".equals(name)) {
+        json.beginArray();
+        while (json.hasNext())
+          table.addColumn(DataTableColumn.fromJson(json));
+        json.endArray();
+        hasColumns = true;
+      } else if ("rows".equals(name)) {
+        if (!hasColumns)
+          throw new MalformedJsonException("cols expected before rows");
+
+        table.readRows(json);
+      } else if ("p".equals(name)) {
+        table.setTableProperties(DataTableCell.readProperties(json));
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return table;
+  }
+
+  /**
+   * Reads a table from the UTF-8 encoded json of
+   * {@link #toJson(OutputStream)}. The stream is not closed.
+   */
+  public static DataTable fromJson(InputStream in) throws IOException {
+    return fromJson(new BufferedReader(new InputStreamReader(in,
+        StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Returns the number of sort orders, pages and filtered rows answered from
+   * the cache.
+   */
+  public long getCacheHitCount() {
+    return _cache.hitCount();
+  }
+
+  /**
+   * Returns the number of sort orders, pages and filtered rows that were not
+   * in the cache and had to be computed.
+   */
+  public long getCacheMissCount() {
+    return _cache.missCount();
+  }
+
+  /**
+   * Returns an estimate of the number of distinct non null values in the
+   * column.
+   */
+  public int getColumnDistinctCount(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    return _vectors[columnIndex].distinctCount();
+  }
+
   public String getColumnId(int columnIndex) {
     checkColumnIndex(columnIndex);
     return _columns[columnIndex].id();
@@ -115,14 +246,23 @@ public class DataTable {
     return _columns[columnIndex].label();
   }
 
+  public int getColumnNullCount(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    return _vectors[columnIndex].nullCount();
+  }
+
   public String getColumnPattern(int columnIndex) {
     checkColumnIndex(columnIndex);
     return _columns[columnIndex].pattern();
   }
 
+  /**
+   * Returns the properties of the column, they are unmodifiable if the table
+   * is read only.
+   */
   public Map<String, Object> getColumnProperties(int columnIndex) {
     checkColumnIndex(columnIndex);
-    return _columns[columnIndex].properties();
+    return readable(_columns[columnIndex].properties());
   }
 
   public Object getColumnProperty(int columnIndex, String name) {
@@ -131,29 +271,8 @@ public class DataTable {
   }
 
   public Range getColumnRange(int columnIndex) {
-    final Type type = getColumnType(columnIndex);
-    final Comparator<Object> comparator = type.comparator();
-
-    Object min = null;
-    Object max = null;
-    for (int i = 0; i < _rowCount; i++) {
-      final DataTableRow row = _rows[i];
-      final DataTableCell cell = row.cell(columnIndex);
-      final Object value = cell.value();
-      if (value == null)
-        continue;
-
-      if (min == null) {
-        min = value;
-        max = value;
-        continue;
-      }
-
-      min = min(min, value, comparator);
-      max = max(max, value, comparator);
-    }
-
-    return new Range(min, max);
+    checkColumnIndex(columnIndex);
+    return _vectors[columnIndex].range();
   }
 
   public Role getColumnRole(int columnIndex) {
@@ -166,27 +285,38 @@ public class DataTable {
     return _columns[columnIndex].type();
   }
 
+  /**
+   * Returns the rows accepted by all filters. Filters on indexed columns are
+   * answered by the index, range and value filters on the other columns are
+   * evaluated a chunk of rows at a time, skipping the chunks their zone maps
+   * rule out, and the remaining filters are only called for the rows still
+   * selected. When all filters are {@link RangeDataTableFilter} or
+   * {@link ValueDataTableFilter} filters the rows are cached until the table
+   * changes.
+   */
   public int[] getFilteredRows(DataTableFilter... filters) {
-    final int[] accepted = new int[_rowCount];
-    int index = 0;
-    for (int row = 0; row < _rowCount; row++) {
-      if (accepts(filters, _rows[row]))
-        accepted[index++] = row;
+    for (DataTableFilter filter : filters) {
+      if (filter.getClass() != RangeDataTableFilter.class
+          && filter.getClass() != ValueDataTableFilter.class)
+        return filterRows(filters);
     }
 
-    return Arrays.copyOf(accepted, index);
+    final List<Object> key = ResultCache.key(FILTER, (Object[]) filters);
+    int[] rows = _cache.get(key, _modCount);
+    if (rows == null) {
+      rows = filterRows(filters);
+      _cache.put(key, rows, _modCount);
+    }
+    return rows;
   }
 
   public String getFormattedValue(int rowIndex, int columnIndex) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    final String formatted = cell.formattedValue();
+    final ColumnVector vector = vector(rowIndex, columnIndex);
+    final String formatted = vector.formattedValue(rowIndex);
     if (formatted != null)
       return formatted;
 
-    final Object value = cell.value();
+    final Object value = vector.get(rowIndex);
     if (value == null)
       return "";
 
@@ -206,26 +336,92 @@ public class DataTable {
     return _rowCount;
   }
 
+  /**
+   * Returns a page of the rows sorted on the columns, the same rows as the
+   * slice of {@link #getSortedRows(DataTableSort...)} starting at offset,
+   * without sorting all rows.
+   */
+  public int[] getPagedRows(int offset, int numberOfRows,
+      DataTableSort... sort) {
+    if (offset < 0 || numberOfRows < 0)
+      throw new IllegalArgumentException();
+
+    final int fromIndex = Math.min(offset, _rowCount);
+    final int toIndex = (int) Math.min((long) offset + numberOfRows,
+        _rowCount);
+    final int[] sorted = _cache.peek(ResultCache.key(SORT, (Object[]) sort),
+        _modCount);
+    if (sorted != null)
+      return Arrays.copyOfRange(sorted, fromIndex, toIndex);
+
+    final List<Object> key = ResultCache.key(Arrays.<Object> asList(PAGE,
+        Integer.valueOf(fromIndex), Integer.valueOf(toIndex)),
+        (Object[]) sort);
+    int[] rows = _cache.get(key, _modCount);
+    if (rows == null) {
+      rows = createSorter(sort).sort(_rowCount, fromIndex, toIndex);
+      _cache.put(key, rows, _modCount);
+    }
+    return rows;
+  }
+
+  public int[] getParallelSortedRows(int... columnIndices) {
+    final DataTableSort[] sort = toSortArray(columnIndices);
+    return getParallelSortedRows(sort);
+  }
+
+  /**
+   * Same as {@link #getSortedRows(DataTableSort...)} but sorts the rows on the
+   * common fork join pool. The result is identical to the sequential sort.
+   */
+  public int[] getParallelSortedRows(DataTableSort... sort) {
+    return sortedRows(sort, true);
+  }
+
+  /**
+   * Returns the properties of the cell, changes to them change the cell. If
+   * the table is read only they are unmodifiable, or an empty map if the cell
+   * has none. A column shared with a snapshot is copied first.
+   */
   public Map<String, Object> getProperties(int rowIndex, int columnIndex) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    return _rows[rowIndex].cell(columnIndex).properties();
+    final ColumnVector vector = vector(rowIndex, columnIndex);
+    if (!_readOnly)
+      return writable(columnIndex).properties(rowIndex);
+
+    if (!vector.hasProperties(rowIndex))
+      return Collections.emptyMap();
+
+    return Collections.unmodifiableMap(vector.properties(rowIndex));
   }
 
   public Object getProperty(int rowIndex, int columnIndex, String name) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    return _rows[rowIndex].cell(columnIndex).property(name);
+    return vector(rowIndex, columnIndex).property(rowIndex, name);
   }
 
+  /**
+   * Returns the properties of the row, changes to them change the row. If the
+   * table is read only they are unmodifiable, or an empty map if the row has
+   * none.
+   */
   public Map<String, Object> getRowProperties(int rowIndex) {
+    if (!_readOnly)
+      return addedRowProperties(rowIndex);
+
     checkRowIndex(rowIndex);
-    return _rows[rowIndex].properties();
+    final Map<String, Object> properties = _rowProperties.get(rowIndex);
+    if (properties == null)
+      return Collections.emptyMap();
+
+    return Collections.unmodifiableMap(properties);
   }
 
   public Object getRowProperty(int rowIndex, String name) {
     checkRowIndex(rowIndex);
-    return _rows[rowIndex].property(name);
+    final Map<String, Object> properties = _rowProperties.get(rowIndex);
+    if (properties == null)
+      return null;
+
+    return properties.get(name);
   }
 
   public int[] getSortedRows(int... columnIndices) {
@@ -233,34 +429,74 @@ public class DataTable {
     return getSortedRows(sort);
   }
 
+  /**
+   * Returns the rows sorted on the columns, the order is cached until the
+   * table changes.
+   */
   public int[] getSortedRows(DataTableSort... sort) {
-    final Integer[] indices = new Integer[_rowCount];
-    for (int i = 0; i < indices.length; i++)
-      indices[i] = i;
-
-    final DataTableRow[] rows = Arrays.copyOf(_rows, _rowCount);
-    Arrays.sort(indices, new ArrayIndexComparator<DataTableRow>(rows,
-        new DataTableRowComparator(sort)));
-
-    final int[] sorted = new int[indices.length];
-    for (int i = 0; i < sorted.length; i++)
-      sorted[i] = indices[i].intValue();
-
-    return sorted;
+    return sortedRows(sort, false);
   }
 
+  /**
+   * Returns the properties of the table, they are unmodifiable if the table
+   * is read only.
+   */
   public Map<String, Object> getTableProperties() {
-    return _properties;
+    return readable(_properties);
   }
 
   public Object getTableProperty(String name) {
     return _properties.get(name);
   }
 
+  /**
+   * Returns the first rows sorted on the columns, see
+   * {@link #getPagedRows(int, int, DataTableSort...)}.
+   */
+  public int[] getTopRows(int numberOfRows, DataTableSort... sort) {
+    return getPagedRows(0, numberOfRows, sort);
+  }
+
   public Object getValue(int rowIndex, int columnIndex) {
-    checkRowIndex(rowIndex);
+    return vector(rowIndex, columnIndex).get(rowIndex);
+  }
+
+  /**
+   * Groups the rows on the values of the key columns and aggregates every
+   * group. The returned table holds the key columns followed by a column per
+   * aggregate, and a row per group in ascending key order. Rows whose key
+   * values the column comparator considers equal form a group, null keys form
+   * a group of their own.
+   */
+  public DataTable group(int[] keyColumnIndices,
+      DataTableAggregate... aggregates) {
+    return group(keyColumnIndices, aggregates, false);
+  }
+
+  public boolean hasHashIndex(int columnIndex) {
     checkColumnIndex(columnIndex);
-    return _rows[rowIndex].cell(columnIndex).value();
+    return _vectors[columnIndex].hashIndex() != null;
+  }
+
+  public boolean hasIndex(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    return _vectors[columnIndex].index() != null;
+  }
+
+  /**
+   * Joins the rows of this table to the rows of the table whose key columns
+   * hold equal values, null keys never match. The returned table holds the
+   * columns of this table followed by the columns of the other table except
+   * its key columns, and a row per matching pair ordered on the row of this
+   * table and then on the row of the other table. Cells keep their formatted
+   * values and properties, the properties of the rows are not joined.
+   * <p>
+   * Tables that are both sorted on their keys are merged, otherwise a hash
+   * table is built on the smaller of the two.
+   */
+  public DataTable innerJoin(DataTable table, int[] keyColumnIndices,
+      int[] tableKeyColumnIndices) {
+    return join(table, keyColumnIndices, tableKeyColumnIndices, false);
   }
 
   public void insertColumn(int columnIndex, Type type) {
@@ -276,50 +512,173 @@ public class DataTable {
   }
 
   public void insertColumn(int columnIndex, DataTableColumn column) {
-    if (columnIndex < 0 || columnIndex > _columnCount)
+    modify();
+    insertColumn(columnIndex, column, column.type().createVector());
+  }
+
+  public void insertRows(int rowIndex, int numberOfRows) {
+    modify();
+    if (rowIndex < 0 || rowIndex > _rowCount)
       throw new IndexOutOfBoundsException();
 
-    if (_columnCount == _columns.length) {
-      final DataTableColumn[] newColumns = new DataTableColumn[_columnCount + 4];
-      System.arraycopy(_columns, 0, newColumns, 0, _columnCount);
-      _columns = newColumns;
+    for (int col = 0; col < _columnCount; col++)
+      writable(col).insert(rowIndex, numberOfRows);
+
+    if (_rowCount + numberOfRows > _rowCapacity) {
+      _rowCapacity = Math.max(_rowCount + numberOfRows, _rowCapacity * 3 / 2);
+      _rowProperties.resize(_rowCapacity);
     }
 
-    System.arraycopy(_columns, columnIndex, _columns, columnIndex + 1,
-        _columnCount++ - columnIndex);
-    _columns[columnIndex] = column;
+    _rowProperties.move(rowIndex, rowIndex + numberOfRows, _rowCount
+        - rowIndex);
+    _rowProperties.clear(rowIndex, rowIndex + numberOfRows);
+    _rowCount += numberOfRows;
+  }
 
-    for (int row = 0; row < _rowCount; row++)
-      _rows[row].insertCell(columnIndex);
+  public void insertRows(int rowIndex, DataTableRow... rows) {
+    insertRows(rowIndex, rows.length);
+
+    for (int i = 0; i < rows.length; i++) {
+      final DataTableRow row = rows[i];
+      final int index = rowIndex + i;
+      if (row.hasProperties())
+        writableRowProperties(index).putAll(row.properties());
+
+      for (int col = 0; col < Math.min(_columnCount, row.size()); col++) {
+        final DataTableCell cell = row.cell(col);
+        if (cell != null)
+          setCell(index, col, cell);
+      }
+    }
   }
 
-  public void insertRows(int rowIndex, int numberOfRows) {
-    final DataTableRow[] rows = new DataTableRow[numberOfRows];
-    for (int i = 0; i < rows.length; i++)
-      rows[i] = new DataTableRow(_columnCount);
+  /**
+   * Returns true if the rows, columns, values and properties of the table can
+   * not be changed, see {@link DataTableDeserializer#map(java.nio.file.Path)}
+   * and {@link #snapshot()}.
+   */
+  public boolean isReadOnly() {
+    return _readOnly;
+  }
 
-    insertRows(rowIndex, rows);
+  /**
+   * Same as {@link #innerJoin(DataTable, int[], int[])} but the rows of this
+   * table without a match are kept, their columns of the other table are
+   * null.
+   */
+  public DataTable leftJoin(DataTable table, int[] keyColumnIndices,
+      int[] tableKeyColumnIndices) {
+    return join(table, keyColumnIndices, tableKeyColumnIndices, true);
   }
 
-  public void insertRows(int rowIndex, DataTableRow... rows) {
-    if (rowIndex < 0 || rowIndex > _rowCount)
-      throw new IndexOutOfBoundsException();
+  /**
+   * Same as {@link #group(int[], DataTableAggregate...)} but chunks of rows
+   * are aggregated in parallel and their partial aggregates merged. The sums
+   * and averages are added in a different order, they are equal to those of
+   * {@link #group(int[], DataTableAggregate...)} only up to rounding.
+   */
+  public DataTable parallelGroup(int[] keyColumnIndices,
+      DataTableAggregate... aggregates) {
+    return group(keyColumnIndices, aggregates, true);
+  }
 
-    if ((_rowCount + rows.length) >= _rows.length) {
-      final int newLength = Math.max(_rowCount + rows.length,
-          _rows.length * 3 / 2);
-      final DataTableRow[] newRows = new DataTableRow[newLength];
-      System.arraycopy(_rows, 0, newRows, 0, _rowCount);
-      _rows = newRows;
+  public void parallelSort(int... columnIndices) {
+    final DataTableSort[] sort = toSortArray(columnIndices);
+    parallelSort(sort);
+  }
+
+  public void parallelSort(DataTableSort... sort) {
+    reorder(createSorter(sort).parallelSort(_rowCount));
+  }
+
+  /**
+   * Cross tabulates the table. The returned table holds the row key columns
+   * followed by a column per distinct value of the column key column, in
+   * ascending order, and a row per distinct combination of row key values.
+   * Every cell holds the aggregate of the rows with its row key values and
+   * column key value, or null if there are no such rows.
+   * <p>
+   * All columns are added before the rows so that no column is grown once
+   * the rows exist.
+   */
+  public DataTable pivot(int[] rowKeyColumnIndices, int columnKeyColumnIndex,
+      DataTableAggregate aggregate) {
+    for (int columnIndex : rowKeyColumnIndices)
+      checkColumnIndex(columnIndex);
+    checkColumnIndex(columnKeyColumnIndex);
+    checkColumnIndex(aggregate.columnIndex());
+    final DataTableColumn source = _columns[aggregate.columnIndex()];
+    final Type type = aggregate.function().type(source.type());
+
+    final int keyCount = rowKeyColumnIndices.length;
+    final int[] keyColumns = Arrays.copyOf(rowKeyColumnIndices, keyCount + 1);
+    keyColumns[keyCount] = columnKeyColumnIndex;
+    final GroupAggregator aggregator = GroupAggregator.aggregate(_vectors,
+        keyColumns, new DataTableAggregate[] { aggregate }, _rowCount, false);
+
+    // Groups are ordered on the row keys first, a change of the row keys
+    // starts a row of the pivot
+    final int groupCount = aggregator.groupCount();
+    final int[] groupRows = new int[groupCount];
+    final long[] columnKeys = new long[groupCount];
+    int rowCount = 0;
+    for (int group = 0; group < groupCount; group++) {
+      if (group > 0 && !sameKeys(aggregator, keyCount, group - 1, group))
+        rowCount++;
+
+      groupRows[group] = rowCount;
+      columnKeys[group] = aggregator.key(keyCount, group);
+    }
+    if (groupCount > 0)
+      rowCount++;
+
+    Arrays.sort(columnKeys);
+    int columnCount = 0;
+    for (int i = 0; i < groupCount; i++) {
+      if (i == 0 || columnKeys[i] != columnKeys[i - 1])
+        columnKeys[columnCount++] = columnKeys[i];
     }
 
-    for (DataTableRow row : rows)
-      row.size(_columnCount);
+    final int[] groupColumns = new int[groupCount];
+    final int[] firstRows = new int[columnCount];
+    Arrays.fill(firstRows, -1);
+    for (int group = 0; group < groupCount; group++) {
+      final int column = Arrays.binarySearch(columnKeys, 0, columnCount,
+          aggregator.key(keyCount, group));
+      groupColumns[group] = column;
+      if (firstRows[column] < 0)
+        firstRows[column] = aggregator.firstRow(group);
+    }
 
-    System.arraycopy(_rows, rowIndex, _rows, rowIndex + rows.length, _rowCount
-        - rowIndex);
-    System.arraycopy(rows, 0, _rows, rowIndex, rows.length);
-    _rowCount += rows.length;
+    final DataTable table = new DataTable();
+    table.ensureColumnCapacity(keyCount + columnCount);
+    for (int columnIndex : rowKeyColumnIndices)
+      table.addColumn(copyOf(_columns[columnIndex]));
+
+    final ColumnVector keyVector = _vectors[columnKeyColumnIndex];
+    for (int i = 0; i < columnCount; i++) {
+      final Object key = keyVector.get(firstRows[i]);
+      final DataTableColumn target = new DataTableColumn(type).label(key == null
+          ? null : key.toString());
+      if (aggregate.function() != DataTableAggregate.Function.COUNT)
+        target.pattern(source.pattern());
+      table.addColumn(target);
+    }
+
+    table.addRows(rowCount);
+    for (int group = 0; group < groupCount; group++) {
+      final int row = groupRows[group];
+      if (group == 0 || groupRows[group - 1] != row) {
+        final int first = aggregator.firstRow(group);
+        for (int i = 0; i < keyCount; i++)
+          table._vectors[i].set(row,
+              _vectors[rowKeyColumnIndices[i]].get(first));
+      }
+
+      table._vectors[keyCount + groupColumns[group]].set(row,
+          aggregator.result(0, group));
+    }
+    return table;
   }
 
   public void removeColumn(int columnIndex) {
@@ -327,6 +686,7 @@ public class DataTable {
   }
 
   public void removeColumns(int columnIndex, int numberOfColumns) {
+    modify();
     checkColumnIndex(columnIndex);
     if (numberOfColumns < 1)
       throw new IllegalArgumentException();
@@ -335,14 +695,27 @@ public class DataTable {
     for (int col = columnIndex; col < lastCol; col++) {
       _columns[col].release();
       _columns[col] = null;
+      _vectors[col] = null;
     }
 
-    _columnCount = Math.max(0, _columnCount - numberOfColumns);
-    System.arraycopy(_columns, columnIndex + numberOfColumns, _columns,
-        columnIndex, _columnCount - columnIndex);
+    final int removed = lastCol - columnIndex;
+    System.arraycopy(_columns, lastCol, _columns, columnIndex, _columnCount
+        - lastCol);
+    System.arraycopy(_vectors, lastCol, _vectors, columnIndex, _columnCount
+        - lastCol);
+    _columnCount -= removed;
+    Arrays.fill(_columns, _columnCount, _columnCount + removed, null);
+    Arrays.fill(_vectors, _columnCount, _columnCount + removed, null);
+  }
 
-    for (int row = 0; row < _rowCount; row++)
-      _rows[row].removeCells(columnIndex, numberOfColumns);
+  public void removeHashIndex(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    writable(columnIndex).removeHashIndex();
+  }
+
+  public void removeIndex(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    writable(columnIndex).removeIndex();
   }
 
   public void removeRow(int rowIndex) {
@@ -350,88 +723,68 @@ public class DataTable {
   }
 
   public void removeRows(int rowIndex, int numberOfRows) {
+    modify();
     checkRowIndex(rowIndex);
     if (numberOfRows < 1)
       throw new IllegalArgumentException();
 
     final int lastRow = Math.min(_rowCount, rowIndex + numberOfRows);
-    for (int row = rowIndex; row < lastRow; row++) {
-      _rows[row].release();
-      _rows[row] = null;
-    }
+    for (int col = 0; col < _columnCount; col++)
+      writable(col).remove(rowIndex, numberOfRows);
 
-    _rowCount = Math.max(0, _rowCount - numberOfRows);
-    System.arraycopy(_rows, rowIndex + numberOfRows, _rows, rowIndex, _rowCount
-        - rowIndex);
+    final int removed = lastRow - rowIndex;
+    _rowProperties.move(lastRow, rowIndex, _rowCount - lastRow);
+    _rowCount -= removed;
+    _rowProperties.clear(_rowCount, _rowCount + removed);
+  }
+
+  /**
+   * Bounds the number of cached sort orders, pages and filtered rows, the
+   * least recently used are evicted. A size of 0 disables the cache.
+   */
+  public void setCacheSize(int size) {
+    _cache.size(size);
   }
 
   public void setCell(int rowIndex, int columnIndex, String value,
       String formattedValue, Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
-    cell.formattedValue(formattedValue);
-    cell.properties().putAll(properties);
+    doSetCell(rowIndex, columnIndex, value, formattedValue, properties);
   }
 
   public void setCell(int rowIndex, int columnIndex, Number value,
       String formattedValue, Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
-    cell.formattedValue(formattedValue);
-    cell.properties().putAll(properties);
+    doSetCell(rowIndex, columnIndex, value, formattedValue, properties);
   }
 
   public void setCell(int rowIndex, int columnIndex, Boolean value,
       String formattedValue, Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
-    cell.formattedValue(formattedValue);
-    cell.properties().putAll(properties);
+    doSetCell(rowIndex, columnIndex, value, formattedValue, properties);
   }
 
   public void setCell(int rowIndex, int columnIndex, LocalDate value,
       String formattedValue, Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
-    cell.formattedValue(formattedValue);
-    cell.properties().putAll(properties);
+    doSetCell(rowIndex, columnIndex, value, formattedValue, properties);
   }
 
   public void setCell(int rowIndex, int columnIndex, LocalDateTime value,
       String formattedValue, Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
-    cell.formattedValue(formattedValue);
-    cell.properties().putAll(properties);
+    doSetCell(rowIndex, columnIndex, value, formattedValue, properties);
   }
 
   public void setCell(int rowIndex, int columnIndex, LocalTime value,
       String formattedValue, Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
-    cell.formattedValue(formattedValue);
-    cell.properties().putAll(properties);
+    doSetCell(rowIndex, columnIndex, value, formattedValue, properties);
   }
 
   public void setColumnLabel(int columnIndex, String label) {
+    modify();
     checkColumnIndex(columnIndex);
     final DataTableColumn column = _columns[columnIndex];
     column.label(label);
   }
 
   public void setColumnProperty(int columnIndex, String name, Object value) {
+    modify();
     checkColumnIndex(columnIndex);
     final DataTableColumn column = _columns[columnIndex];
     column.setProperty(name, value);
@@ -439,6 +792,7 @@ public class DataTable {
 
   public void setColumnProperties(int columnIndex,
       Map<String, Object> properties) {
+    modify();
     checkColumnIndex(columnIndex);
     final DataTableColumn column = _columns[columnIndex];
     column.properties().putAll(properties);
@@ -446,86 +800,145 @@ public class DataTable {
 
   public void setFormattedValue(int rowIndex, int columnIndex,
       String formattedValue) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.formattedValue(formattedValue);
+    writableVector(rowIndex, columnIndex).formattedValue(rowIndex,
+        formattedValue);
   }
 
   public void setProperty(int rowIndex, int columnIndex, String name,
       Object value) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.setProperty(name, value);
+    writableProperties(rowIndex, columnIndex).put(name, value);
   }
 
   public void setProperties(int rowIndex, int columnIndex,
       Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.properties().putAll(properties);
+    writableProperties(rowIndex, columnIndex).putAll(properties);
   }
 
   public void setRowProperty(int rowIndex, String name, Object value) {
-    checkRowIndex(rowIndex);
-    _rows[rowIndex].setProperty(name, value);
+    writableRowProperties(rowIndex).put(name, value);
   }
 
   public void setRowProperties(int rowIndex, Map<String, Object> properties) {
-    checkRowIndex(rowIndex);
-    _rows[rowIndex].properties().putAll(properties);
+    writableRowProperties(rowIndex).putAll(properties);
   }
 
   public void setTableProperty(String name, Object value) {
+    modify();
     _properties.put(name, value);
   }
 
   public void setTableProperties(Map<String, Object> properties) {
+    modify();
     _properties.putAll(properties);
   }
 
   public void setValue(int rowIndex, int columnIndex, String value) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
+    writableVector(rowIndex, columnIndex).set(rowIndex, value);
   }
 
   public void setValue(int rowIndex, int columnIndex, Number value) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
+    writableVector(rowIndex, columnIndex).set(rowIndex, value);
   }
 
   public void setValue(int rowIndex, int columnIndex, Boolean value) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
+    writableVector(rowIndex, columnIndex).set(rowIndex, value);
   }
 
   public void setValue(int rowIndex, int columnIndex, LocalDate value) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
+    writableVector(rowIndex, columnIndex).set(rowIndex, value);
   }
 
   public void setValue(int rowIndex, int columnIndex, LocalDateTime value) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
+    writableVector(rowIndex, columnIndex).set(rowIndex, value);
   }
 
   public void setValue(int rowIndex, int columnIndex, LocalTime value) {
-    checkRowIndex(rowIndex);
-    checkColumnIndex(columnIndex);
-    final DataTableCell cell = _rows[rowIndex].cell(columnIndex);
-    cell.value(value);
+    writableVector(rowIndex, columnIndex).set(rowIndex, value);
+  }
+
+  /**
+   * Sets the values of a {@link Type#BOOLEAN} column for consecutive rows
+   * starting at rowIndex. A row is null where its null flag is true, nulls may
+   * be null.
+   */
+  public void setValues(int rowIndex, int columnIndex, boolean[] values,
+      boolean[] nulls) {
+    loadVector(rowIndex, columnIndex, values.length).load(rowIndex, values,
+        nulls);
+  }
+
+  /**
+   * Sets the values of a {@link Type#NUMBER} column for consecutive rows
+   * starting at rowIndex. A row is null where its null flag is true, nulls may
+   * be null.
+   */
+  public void setValues(int rowIndex, int columnIndex, double[] values,
+      boolean[] nulls) {
+    loadVector(rowIndex, columnIndex, values.length).load(rowIndex, values,
+        nulls);
+  }
+
+  /**
+   * Sets the values of a column for consecutive rows starting at rowIndex. A
+   * {@link Type#NUMBER} column takes the values as integers, {@link Type#DATE}
+   * and {@link Type#DATE_TIME} columns as milliseconds since the epoch in UTC
+   * and a {@link Type#TIME_OF_DAY} column takes the time of day of the
+   * milliseconds. A row is null where its null flag is true, nulls may be
+   * null.
+   */
+  public void setValues(int rowIndex, int columnIndex, long[] values,
+      boolean[] nulls) {
+    loadVector(rowIndex, columnIndex, values.length).load(rowIndex, values,
+        nulls);
+  }
+
+  /**
+   * Sets the values of a {@link Type#STRING} column for consecutive rows
+   * starting at rowIndex, null elements are null rows.
+   */
+  public void setValues(int rowIndex, int columnIndex, String[] values) {
+    loadVector(rowIndex, columnIndex, values.length).load(rowIndex, values,
+        null);
+  }
+
+  /**
+   * Returns a read only copy of the table as it is now. The copy can be read by
+   * any number of threads concurrently while this table goes on changing, it
+   * must be taken on the thread changing this table and handed to the readers
+   * through a volatile field or another safe publication.
+   * <p>
+   * Columns are shared copy on write: taking a snapshot computes what the
+   * columns would otherwise compute when first read, after which the shared
+   * columns are never changed again. The first change to a column of this
+   * table after a snapshot copies that column. Row and table properties and
+   * column metadata are copied with the snapshot.
+   */
+  public DataTable snapshot() {
+    final DataTable snapshot = new DataTable();
+    snapshot.ensureColumnCapacity(_columnCount);
+    for (int col = 0; col < _columnCount; col++) {
+      final DataTableColumn column = _columns[col];
+      _vectors[col].share();
+      snapshot._columns[col] = copyOf(column).properties(column.properties());
+      snapshot._vectors[col] = _vectors[col];
+    }
+    snapshot._columnCount = _columnCount;
+
+    snapshot._rowCount = _rowCount;
+    snapshot._rowCapacity = _rowCount;
+    snapshot._rowProperties.resize(_rowCount);
+    if (!_rowProperties.isEmpty()) {
+      for (int row = 0; row < _rowCount; row++) {
+        final Map<String, Object> properties = _rowProperties.get(row);
+        if (properties != null)
+          snapshot._rowProperties.set(row, new HashMap<String, Object>(
+              properties));
+      }
+    }
+
+    snapshot._properties.putAll(_properties);
+    snapshot._readOnly = true;
+    return snapshot;
   }
 
   public void sort(int... columnIndices) {
@@ -534,32 +947,251 @@ public class DataTable {
   }
 
   public void sort(DataTableSort... sort) {
-    final int[] indices = getSortedRows(sort);
-    final DataTableRow[] newRows = new DataTableRow[_rows.length];
-    for (int i = 0; i < indices.length; i++)
-      newRows[i] = _rows[indices[i]];
-
-    _rows = newRows;
+    reorder(createSorter(sort).sort(_rowCount));
   }
 
   public JsonElement toJson() {
-    final JsonArray cols = new JsonArray();
-    for (int i = 0; i < _columnCount; i++)
-      cols.add(_columns[i].toJson());
+    return toJson(null, null);
+  }
+
+  /**
+   * Writes the same json as {@link #toJson()} one cell at a time, without
+   * building the json tree of the table. The writer is flushed but not
+   * closed.
+   */
+  public void toJson(Writer writer) throws IOException {
+    toJson(writer, null, null);
+  }
+
+  /**
+   * Writes the json of {@link #toJson(Writer)} UTF-8 encoded. The stream is
+   * flushed but not closed.
+   */
+  public void toJson(OutputStream out) throws IOException {
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+        StandardCharsets.UTF_8));
+    toJson(writer);
+    writer.flush();
+  }
+
+  @Override
+  public String toString() {
+    final StringWriter writer = new StringWriter();
+    try {
+      toJson(writer);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Adds a column whose vector is created by the caller, such as a vector of
+   * a mapped snapshot.
+   */
+  void addColumn(DataTableColumn column, ColumnVector vector) {
+    insertColumn(_columnCount, column, vector);
+  }
+
+  /**
+   * Rejects any further change to the rows, columns and values.
+   */
+  void setReadOnly() {
+    _readOnly = true;
+  }
+
+  /**
+   * Returns a cursor over the columns, or all columns if null.
+   */
+  RowCursor cursor(int[] columns) {
+    return new RowCursor(columns);
+  }
+
+  DataTableColumn column(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    return _columns[columnIndex];
+  }
+
+  ColumnVector vector(int columnIndex) {
+    checkColumnIndex(columnIndex);
+    return _vectors[columnIndex];
+  }
 
-    final JsonArray rows = new JsonArray();
-    for (int i = 0; i < _rowCount; i++)
-      rows.add(_rows[i].toJson());
+  /**
+   * Returns the json of the rows and columns in the given order, a null array
+   * selects all rows, or all columns. Shared with {@link DataTableView} so
+   * that a view renders its cells the same way as the table.
+   */
+  JsonElement toJson(int[] rows, int[] columns) {
+    final ColumnVector[] vectors = jsonVectors(columns);
+    final JsonArray cols = new JsonArray();
+    for (int i = 0; i < vectors.length; i++)
+      cols.add(_columns[columns == null ? i : columns[i]].toJson());
+
+    final JsonArray jsonRows = new JsonArray();
+    final int rowCount = rows == null ? _rowCount : rows.length;
+    for (int i = 0; i < rowCount; i++) {
+      final int row = rows == null ? i : rows[i];
+      final JsonArray cells = new JsonArray();
+      for (ColumnVector vector : vectors)
+        cells.add(DataTableCell.toJson(vector.get(row),
+            vector.formattedValue(row)));
+
+      final JsonObject json = new JsonObject();
+      json.add("c", cells);
+      jsonRows.add(json);
+    }
 
     final JsonObject json = new JsonObject();
     json.add("cols", cols);
-    json.add("rows", rows);
+    json.add("rows", jsonRows);
     return json;
   }
 
-  @Override
-  public String toString() {
-    return new Gson().toJson(toJson());
+  /**
+   * Writes the json of {@link #toJson(int[], int[])} one cell at a time.
+   */
+  void toJson(Writer writer, int[] rows, int[] columns) throws IOException {
+    final ColumnVector[] vectors = jsonVectors(columns);
+    final Gson gson = new Gson();
+    final JsonWriter json = new JsonWriter(writer);
+    json.setLenient(true);
+    json.setHtmlSafe(true);
+
+    json.beginObject();
+    json.name("cols").beginArray();
+    for (int i = 0; i < vectors.length; i++)
+      gson.toJson(_columns[columns == null ? i : columns[i]].toJson(), json);
+    json.endArray();
+
+    json.name("rows").beginArray();
+    final int rowCount = rows == null ? _rowCount : rows.length;
+    for (int i = 0; i < rowCount; i++) {
+      final int row = rows == null ? i : rows[i];
+      json.beginObject().name("c").beginArray();
+      for (ColumnVector vector : vectors)
+        DataTableCell.toJson(json, vector.get(row), vector.formattedValue(row));
+      json.endArray().endObject();
+    }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
+
+  /**
+   * Returns the properties of the row, or null if none were set.
+   */
+  Map<String, Object> rowProperties(int rowIndex) {
+    checkRowIndex(rowIndex);
+    return _rowProperties.get(rowIndex);
+  }
+
+  /**
+   * Appends the rows of the json array. Rows are added a chunk at a time and
+   * the unused rows of the last chunk are removed at the end.
+   */
+  private void readRows(JsonReader json) throws IOException {
+    final int first = _rowCount;
+    int row = first;
+    json.beginArray();
+    while (json.hasNext()) {
+      if (row == _rowCount)
+        addRows(CHUNK_SIZE);
+
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+      } else {
+        readRow(json, row);
+      }
+      row++;
+    }
+    json.endArray();
+
+    if (row < _rowCount)
+      removeRows(row, _rowCount - row);
+  }
+
+  private void readRow(JsonReader json, int row) throws IOException {
+    json.beginObject();
+    while (json.hasNext()) {
+      final String name = json.nextName();
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+      } else if ("c".equals(name)) {
+        json.beginArray();
+        for (int col = 0; json.hasNext(); col++) {
+          if (col < _columnCount && json.peek() != JsonToken.NULL) {
+            readCell(json, row, col);
+          } else {
+            json.skipValue();
+          }
+        }
+        json.endArray();
+      } else if ("p".equals(name)) {
+        writableRowProperties(row).putAll(DataTableCell.readProperties(json));
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+  }
+
+  private void readCell(JsonReader json, int row, int col) throws IOException {
+    final ColumnVector vector = _vectors[col];
+    json.beginObject();
+    while (json.hasNext()) {
+      final String name = json.nextName();
+      if ("v".equals(name)) {
+        vector.set(row, DataTableCell.readValue(json, vector.type()));
+      } else if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+      } else if ("f".equals(name)) {
+        vector.formattedValue(row, json.nextString());
+      } else if ("p".equals(name)) {
+        vector.properties(row).putAll(DataTableCell.readProperties(json));
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+  }
+
+  private void insertColumn(int columnIndex, DataTableColumn column,
+      ColumnVector vector) {
+    if (columnIndex < 0 || columnIndex > _columnCount)
+      throw new IndexOutOfBoundsException();
+
+    if (_columnCount == _columns.length)
+      ensureColumnCapacity(_columnCount + 4);
+
+    vector.insert(0, _rowCount);
+
+    System.arraycopy(_columns, columnIndex, _columns, columnIndex + 1,
+        _columnCount - columnIndex);
+    System.arraycopy(_vectors, columnIndex, _vectors, columnIndex + 1,
+        _columnCount - columnIndex);
+    _columns[columnIndex] = column;
+    _vectors[columnIndex] = vector;
+    _columnCount++;
+  }
+
+  private void ensureColumnCapacity(int capacity) {
+    if (capacity <= _columns.length)
+      return;
+
+    _columns = Arrays.copyOf(_columns, capacity);
+    _vectors = Arrays.copyOf(_vectors, capacity);
+  }
+
+  /**
+   * Checks that the table may change and counts the change, the rows cached
+   * before it no longer hold.
+   */
+  private void modify() {
+    if (_readOnly)
+      throw new UnsupportedOperationException();
+
+    _modCount++;
   }
 
   private void checkColumnIndex(int columnIndex) {
@@ -572,6 +1204,438 @@ public class DataTable {
       throw new IndexOutOfBoundsException();
   }
 
+  private ColumnVector[] jsonVectors(int[] columns) {
+    if (columns == null)
+      return Arrays.copyOf(_vectors, _columnCount);
+
+    final ColumnVector[] vectors = new ColumnVector[columns.length];
+    for (int i = 0; i < columns.length; i++)
+      vectors[i] = _vectors[columns[i]];
+    return vectors;
+  }
+
+  private Map<String, Object> readable(Map<String, Object> properties) {
+    return _readOnly ? Collections.unmodifiableMap(properties) : properties;
+  }
+
+  private ColumnVector vector(int rowIndex, int columnIndex) {
+    checkRowIndex(rowIndex);
+    checkColumnIndex(columnIndex);
+    return _vectors[columnIndex];
+  }
+
+  /**
+   * Returns the vector of the column after checking that the rows from
+   * rowIndex can take the number of values.
+   */
+  private ColumnVector loadVector(int rowIndex, int columnIndex,
+      int numberOfValues) {
+    modify();
+    checkColumnIndex(columnIndex);
+    if (rowIndex < 0 || rowIndex + numberOfValues > _rowCount)
+      throw new IndexOutOfBoundsException();
+
+    return writable(columnIndex);
+  }
+
+  /**
+   * Returns the vector of the column for a change, a vector shared with a
+   * snapshot is replaced by a copy first. The vectors of a snapshot itself
+   * never change, its readers may be reading them.
+   */
+  private ColumnVector writable(int columnIndex) {
+    if (_vectors[columnIndex].isShared()) {
+      if (_readOnly)
+        throw new UnsupportedOperationException();
+
+      _vectors[columnIndex] = _vectors[columnIndex].copy();
+    }
+    return _vectors[columnIndex];
+  }
+
+  private ColumnVector writableVector(int rowIndex, int columnIndex) {
+    modify();
+    checkRowIndex(rowIndex);
+    checkColumnIndex(columnIndex);
+    return writable(columnIndex);
+  }
+
+  private Map<String, Object> writableProperties(int rowIndex,
+      int columnIndex) {
+    modify();
+    checkRowIndex(rowIndex);
+    checkColumnIndex(columnIndex);
+    return writable(columnIndex).properties(rowIndex);
+  }
+
+  private Map<String, Object> writableRowProperties(int rowIndex) {
+    modify();
+    return addedRowProperties(rowIndex);
+  }
+
+  /**
+   * Returns the properties of the row, they are added if the row has none.
+   */
+  private Map<String, Object> addedRowProperties(int rowIndex) {
+    checkRowIndex(rowIndex);
+    Map<String, Object> properties = _rowProperties.get(rowIndex);
+    if (properties == null) {
+      properties = new HashMap<String, Object>();
+      _rowProperties.set(rowIndex, properties);
+    }
+    return properties;
+  }
+
+  private void setRow(int rowIndex, Object[] values) {
+    for (int i = 0; i < Math.min(_columnCount, values.length); i++) {
+      final Object value = values[i];
+      if (value instanceof DataTableCell) {
+        setCell(rowIndex, i, (DataTableCell) value);
+      } else if (value instanceof String || value instanceof Number
+          || value instanceof Boolean || value instanceof LocalDate
+          || value instanceof LocalDateTime || value instanceof LocalTime) {
+        writable(i).set(rowIndex, value);
+      } else {
+        throw new UnsupportedOperationException();
+      }
+    }
+  }
+
+  private void doSetCell(int rowIndex, int columnIndex, Object value,
+      String formattedValue, Map<String, Object> properties) {
+    final ColumnVector vector = writableVector(rowIndex, columnIndex);
+    vector.set(rowIndex, value);
+    vector.formattedValue(rowIndex, formattedValue);
+    if (properties != null && !properties.isEmpty())
+      vector.properties(rowIndex).putAll(properties);
+  }
+
+  private DataTable group(int[] keyColumnIndices,
+      DataTableAggregate[] aggregates, boolean parallel) {
+    for (int columnIndex : keyColumnIndices)
+      checkColumnIndex(columnIndex);
+
+    final DataTable table = new DataTable();
+    for (int columnIndex : keyColumnIndices)
+      table.addColumn(copyOf(_columns[columnIndex]));
+
+    for (DataTableAggregate aggregate : aggregates) {
+      checkColumnIndex(aggregate.columnIndex());
+      final DataTableColumn column = _columns[aggregate.columnIndex()];
+      final DataTableColumn target = new DataTableColumn(aggregate.function()
+          .type(column.type())).label(column.label());
+      if (aggregate.function() != DataTableAggregate.Function.COUNT)
+        target.pattern(column.pattern());
+      table.addColumn(target);
+    }
+
+    final GroupAggregator aggregator = GroupAggregator.aggregate(_vectors,
+        keyColumnIndices, aggregates, _rowCount, parallel);
+    table.addRows(aggregator.groupCount());
+    for (int group = 0; group < aggregator.groupCount(); group++) {
+      final int first = aggregator.firstRow(group);
+      for (int i = 0; i < keyColumnIndices.length; i++)
+        table._vectors[i].set(group,
+            _vectors[keyColumnIndices[i]].get(first));
+
+      for (int i = 0; i < aggregates.length; i++)
+        table._vectors[keyColumnIndices.length + i].set(group,
+            aggregator.result(i, group));
+    }
+    return table;
+  }
+
+  private DataTable join(DataTable table, int[] keyColumnIndices,
+      int[] tableKeyColumnIndices, boolean outer) {
+    for (int columnIndex : keyColumnIndices)
+      checkColumnIndex(columnIndex);
+    for (int columnIndex : tableKeyColumnIndices)
+      table.checkColumnIndex(columnIndex);
+
+    final RowJoiner joiner = new RowJoiner(_vectors, keyColumnIndices,
+        _rowCount, table._vectors, tableKeyColumnIndices, table._rowCount);
+    joiner.join(outer);
+
+    final boolean[] keys = new boolean[table._columnCount];
+    for (int columnIndex : tableKeyColumnIndices)
+      keys[columnIndex] = true;
+
+    final DataTable result = new DataTable();
+    result.ensureColumnCapacity(_columnCount + table._columnCount);
+    for (int col = 0; col < _columnCount; col++)
+      result.addColumn(copyOf(_columns[col]));
+
+    for (int col = 0; col < table._columnCount; col++) {
+      if (!keys[col])
+        result.addColumn(copyOf(table._columns[col]));
+    }
+
+    final int[] leftRows = joiner.leftRows();
+    final int[] rightRows = joiner.rightRows();
+    result.addRows(joiner.size());
+    for (int col = 0; col < _columnCount; col++)
+      copyCells(_vectors[col], leftRows, joiner.size(), result._vectors[col]);
+
+    int targetIndex = _columnCount;
+    for (int col = 0; col < table._columnCount; col++) {
+      if (!keys[col])
+        copyCells(table._vectors[col], rightRows, joiner.size(),
+            result._vectors[targetIndex++]);
+    }
+    return result;
+  }
+
+  /**
+   * Copies the values, formatted values and properties of the source rows to
+   * the first count rows of the target, a source row of -1 leaves the target
+   * row null.
+   */
+  private static void copyCells(ColumnVector source, int[] rows, int count,
+      ColumnVector target) {
+    for (int row = 0; row < count; row++) {
+      final int sourceRow = rows[row];
+      if (sourceRow < 0)
+        continue;
+
+      target.set(row, source.get(sourceRow));
+      final String formattedValue = source.formattedValue(sourceRow);
+      if (formattedValue != null)
+        target.formattedValue(row, formattedValue);
+      if (source.hasProperties(sourceRow))
+        target.properties(row).putAll(source.properties(sourceRow));
+    }
+  }
+
+  private void setCell(int rowIndex, int columnIndex, DataTableCell cell) {
+    doSetCell(rowIndex, columnIndex, cell.value(), cell.formattedValue(),
+        cell.hasProperties() ? cell.properties() : null);
+  }
+
+  private void reorder(int[] indices) {
+    modify();
+    for (int col = 0; col < _columnCount; col++)
+      writable(col).reorder(indices);
+
+    _rowProperties.gather(indices);
+  }
+
+  /**
+   * Returns the rows accepted by all filters in ascending order. Filters a
+   * column index answers give the candidate rows. Range and value filters on
+   * the other columns are evaluated a chunk at a time into a selection bitmap,
+   * skipping the chunks their zone maps rule out. The remaining filters are
+   * evaluated row by row on the selected rows.
+   */
+  private int[] filterRows(DataTableFilter[] filters) {
+    BitSet candidates = null;
+    final DataTableFilter[] columnFilters = new DataTableFilter[filters.length];
+    final DataTableFilter[] rowFilters = new DataTableFilter[filters.length];
+    int columnFilterCount = 0;
+    int rowFilterCount = 0;
+    for (DataTableFilter filter : filters) {
+      final ColumnVector vector = filteredVector(filter);
+      final BitSet rows = vector == null ? null : indexedRows(filter, vector);
+      if (rows != null) {
+        if (candidates == null) {
+          candidates = rows;
+        } else {
+          candidates.and(rows);
+        }
+      } else if (vector != null) {
+        columnFilters[columnFilterCount++] = filter;
+      } else {
+        rowFilters[rowFilterCount++] = filter;
+      }
+    }
+
+    final Comparator<?>[] comparators = new Comparator<?>[columnFilterCount];
+    for (int i = 0; i < columnFilterCount; i++) {
+      if (columnFilters[i] instanceof RangeDataTableFilter)
+        comparators[i] = ((RangeDataTableFilter) columnFilters[i]).type()
+            .comparator();
+    }
+
+    final long[] candidateWords = candidates == null ? null : candidates
+        .toLongArray();
+    final DataTableFilter[] scan = Arrays.copyOf(rowFilters, rowFilterCount);
+    final long[] selection = new long[CHUNK_SIZE >>> 6];
+    final RowCursor cursor = new RowCursor();
+    final int[] accepted = new int[candidates == null ? _rowCount : candidates
+        .cardinality()];
+    int index = 0;
+    for (int fromIndex = 0; fromIndex < _rowCount; fromIndex += CHUNK_SIZE) {
+      final int toIndex = Math.min(_rowCount, fromIndex + CHUNK_SIZE);
+      if (excludes(columnFilters, comparators, columnFilterCount, fromIndex
+          / CHUNK_SIZE))
+        continue;
+
+      select(candidateWords, fromIndex, toIndex, selection);
+      for (int i = 0; i < columnFilterCount; i++)
+        select(columnFilters[i], fromIndex, toIndex, selection);
+
+      for (int w = 0; w < selection.length; w++) {
+        long word = selection[w];
+        while (word != 0) {
+          final int row = fromIndex + (w << 6)
+              + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+          if (accepts(scan, cursor.moveTo(row)))
+            accepted[index++] = row;
+        }
+      }
+    }
+    return Arrays.copyOf(accepted, index);
+  }
+
+  /**
+   * Returns the vector a range or value filter applies to, or null if the
+   * filter has to be evaluated row by row.
+   */
+  private ColumnVector filteredVector(DataTableFilter filter) {
+    // Sub classes may override accepts so only the exact class is handled
+    if (filter.getClass() == RangeDataTableFilter.class) {
+      final RangeDataTableFilter range = (RangeDataTableFilter) filter;
+      final ColumnVector vector = findVector(range.columnIndex());
+      if (vector == null || vector.type() != range.type()
+          || !supports(vector, range.from()) || !supports(vector, range.to()))
+        return null;
+
+      return vector;
+    }
+
+    if (filter instanceof ValueDataTableFilter)
+      return findVector(((ValueDataTableFilter) filter).columnIndex());
+
+    return null;
+  }
+
+  /**
+   * Returns the rows accepted by the filter using the column index, or null if
+   * the column has no suitable index.
+   */
+  private BitSet indexedRows(DataTableFilter filter, ColumnVector vector) {
+    if (filter instanceof RangeDataTableFilter) {
+      final RangeDataTableFilter range = (RangeDataTableFilter) filter;
+      if (vector.index() == null)
+        return null;
+
+      return vector.index().range(range.from(), range.to());
+    }
+
+    final ValueDataTableFilter value = (ValueDataTableFilter) filter;
+    if (vector.hashIndex() != null)
+      return vector.hashIndex().values(value.values());
+
+    if (vector.index() != null)
+      return vector.index().values(value.values());
+
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean excludes(DataTableFilter[] filters,
+      Comparator<?>[] comparators, int count, int block) {
+    for (int i = 0; i < count; i++) {
+      if (comparators[i] == null)
+        continue;
+
+      final RangeDataTableFilter range = (RangeDataTableFilter) filters[i];
+      if (_vectors[range.columnIndex()].zoneMap().excludes(block,
+          range.from(), range.to(), (Comparator<Object>) comparators[i]))
+        return true;
+    }
+    return false;
+  }
+
+  private void select(DataTableFilter filter, int fromIndex, int toIndex,
+      long[] selection) {
+    if (filter instanceof RangeDataTableFilter) {
+      final RangeDataTableFilter range = (RangeDataTableFilter) filter;
+      _vectors[range.columnIndex()].selectRange(range.from(), range.to(),
+          fromIndex, toIndex, selection);
+      return;
+    }
+
+    final ValueDataTableFilter value = (ValueDataTableFilter) filter;
+    _vectors[value.columnIndex()].selectValues(value.values(), fromIndex,
+        toIndex, selection);
+  }
+
+  private ColumnVector findVector(int columnIndex) {
+    if (columnIndex < 0 || columnIndex >= _columnCount)
+      return null;
+
+    return _vectors[columnIndex];
+  }
+
+  private int[] sortedRows(DataTableSort[] sort, boolean parallel) {
+    final List<Object> key = ResultCache.key(SORT, (Object[]) sort);
+    int[] rows = _cache.get(key, _modCount);
+    if (rows == null) {
+      final RowSorter sorter = createSorter(sort);
+      rows = parallel ? sorter.parallelSort(_rowCount) : sorter
+          .sort(_rowCount);
+      _cache.put(key, rows, _modCount);
+    }
+    return rows;
+  }
+
+  private RowSorter createSorter(DataTableSort[] sort) {
+    for (DataTableSort s : sort)
+      checkColumnIndex(s.columnIndex());
+
+    return new RowSorter(_vectors, sort);
+  }
+
+  /**
+   * Selects the candidate rows of the chunk, or all of its rows if there are
+   * no candidates.
+   */
+  private static void select(long[] candidates, int fromIndex, int toIndex,
+      long[] selection) {
+    for (int w = 0; w < selection.length; w++) {
+      final int index = fromIndex + (w << 6);
+      final int length = toIndex - index;
+      if (length <= 0) {
+        selection[w] = 0L;
+        continue;
+      }
+
+      long word = -1L;
+      if (candidates != null) {
+        final int wordIndex = index >>> 6;
+        word = wordIndex < candidates.length ? candidates[wordIndex] : 0L;
+      }
+
+      if (length < 64)
+        word &= (1L << length) - 1;
+      selection[w] = word;
+    }
+  }
+
+  private static boolean sameKeys(GroupAggregator aggregator, int keyCount,
+      int position1, int position2) {
+    for (int i = 0; i < keyCount; i++) {
+      if (aggregator.key(i, position1) != aggregator.key(i, position2))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns a column with the type, label, id, role and pattern of the
+   * column.
+   */
+  private static DataTableColumn copyOf(DataTableColumn column) {
+    return new DataTableColumn(column.type()).label(column.label())
+        .id(column.id()).role(column.role()).pattern(column.pattern());
+  }
+
+  private static boolean supports(ColumnVector vector, Object value) {
+    return value == null || vector.supports(value);
+  }
+
   private static boolean accepts(DataTableFilter[] filters, DataTableRow row) {
     for (DataTableFilter filter : filters) {
       if (!filter.accepts(row))
@@ -588,43 +1652,73 @@ public class DataTable {
     return sort;
   }
 
-  private final class DataTableRowComparator implements
-      Comparator<DataTableRow> {
+  /**
+   * Presents a row of the column storage as a {@link DataTableRow} so that
+   * filters can be evaluated without materializing the rows. Cells are loaded
+   * on access and the instances are reused when the cursor moves. The cursor
+   * of a {@link DataTableView} presents the projected columns only.
+   */
+  final class RowCursor extends DataTableRow {
 
-    private final DataTableSort[] _sort;
+    private final int[] _cursorColumns;
+    private final DataTableCell[] _cursorCells;
 
-    public DataTableRowComparator(DataTableSort[] sort) {
-      if (sort == null)
-        throw new NullPointerException();
+    private int _rowIndex;
+
+    public RowCursor() {
+      this(null);
+    }
 
-      if (sort.length <= 0)
-        throw new IllegalArgumentException();
+    RowCursor(int[] columns) {
+      super(0);
+      _cursorColumns = columns;
+      _cursorCells = new DataTableCell[size()];
+    }
 
-      _sort = sort;
+    RowCursor moveTo(int rowIndex) {
+      _rowIndex = rowIndex;
+      return this;
     }
 
     @Override
-    public int compare(DataTableRow o1, DataTableRow o2) {
-      for (int i = 0; i < _sort.length; i++) {
-        final DataTableSort sort = _sort[i];
+    public DataTableCell cell(int index) {
+      if (_cursorCells[index] == null)
+        _cursorCells[index] = new DataTableCell();
+
+      final ColumnVector vector = _vectors[_cursorColumns == null ? index
+          : _cursorColumns[index]];
+      final DataTableCell cell = _cursorCells[index];
+      cell.release();
+      cell.doSetValue(vector.get(_rowIndex));
+      cell.formattedValue(vector.formattedValue(_rowIndex));
+      if (vector.hasProperties(_rowIndex))
+        cell.properties().putAll(vector.properties(_rowIndex));
+      return cell;
+    }
 
-        final int columnIndex = sort.columnIndex();
-        final Comparator<Object> comparator = getColumnType(columnIndex)
-            .comparator();
-        final Object v1 = o1.cell(columnIndex).value();
-        final Object v2 = o2.cell(columnIndex).value();
+    @Override
+    public Map<String, Object> properties() {
+      final Map<String, Object> properties = _rowProperties.get(_rowIndex);
+      if (properties == null)
+        return Collections.emptyMap();
 
-        final int c = comparator.compare(v1, v2);
-        if (c == 0)
-          continue;
+      return Collections.unmodifiableMap(properties);
+    }
 
-        if (sort.decending())
-          return -c;
+    @Override
+    public Object property(String name) {
+      return getRowProperty(_rowIndex, name);
+    }
 
-        return c;
-      }
+    @Override
+    boolean hasProperties() {
+      final Map<String, Object> properties = _rowProperties.get(_rowIndex);
+      return properties != null && !properties.isEmpty();
+    }
 
-      return 0;
+    @Override
+    int size() {
+      return _cursorColumns == null ? _columnCount : _cursorColumns.length;
     }
   }
 }
@@ -0,0 +1,253 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.datatable.GroupAggregator.State;
+
+/**
+ * Aggregate of a column computed over the rows of every group, see
+ * {@link DataTable#group(int[], DataTableAggregate...)}. Null values are
+ * ignored, an aggregate over a group without values is null except for
+ * {@link Function#COUNT} which is 0.
+ *
+ * @author karl
+ *
+ */
+public final class DataTableAggregate {
+
+  public enum Function {
+    COUNT {
+
+      @Override
+      Type type(Type type) {
+        return Type.NUMBER;
+      }
+
+      @Override
+      void add(State state, int group, int row) {
+        state._counts[group]++;
+      }
+
+      @Override
+      void merge(State state, int group, State other, int otherGroup) {
+        state._counts[group] += other._counts[otherGroup];
+      }
+
+      @Override
+      Object result(State state, int group) {
+        return Integer.valueOf(state._counts[group]);
+      }
+    },
+
+    SUM {
+
+      @Override
+      Type type(Type type) {
+        return checkNumber(type);
+      }
+
+      @Override
+      void add(State state, int group, int row) {
+        addSum(state, group, row);
+      }
+
+      @Override
+      void merge(State state, int group, State other, int otherGroup) {
+        mergeSum(state, group, other, otherGroup);
+      }
+
+      @Override
+      Object result(State state, int group) {
+        if (state._counts[group] == 0)
+          return null;
+
+        return Double.valueOf(state._sums[group]);
+      }
+    },
+
+    AVERAGE {
+
+      @Override
+      Type type(Type type) {
+        return checkNumber(type);
+      }
+
+      @Override
+      void add(State state, int group, int row) {
+        addSum(state, group, row);
+      }
+
+      @Override
+      void merge(State state, int group, State other, int otherGroup) {
+        mergeSum(state, group, other, otherGroup);
+      }
+
+      @Override
+      Object result(State state, int group) {
+        if (state._counts[group] == 0)
+          return null;
+
+        return Double.valueOf(state._sums[group] / state._counts[group]);
+      }
+    },
+
+    MIN {
+
+      @Override
+      Type type(Type type) {
+        return type;
+      }
+
+      @Override
+      long[] keys(ColumnVector vector) {
+        return vector.sortKeys();
+      }
+
+      @Override
+      void add(State state, int group, int row) {
+        addExtreme(state, group, row, -1);
+      }
+
+      @Override
+      void merge(State state, int group, State other, int otherGroup) {
+        addExtreme(state, group, other._rows[otherGroup], -1);
+      }
+
+      @Override
+      Object result(State state, int group) {
+        return extreme(state, group);
+      }
+    },
+
+    MAX {
+
+      @Override
+      Type type(Type type) {
+        return type;
+      }
+
+      @Override
+      long[] keys(ColumnVector vector) {
+        return vector.sortKeys();
+      }
+
+      @Override
+      void add(State state, int group, int row) {
+        addExtreme(state, group, row, 1);
+      }
+
+      @Override
+      void merge(State state, int group, State other, int otherGroup) {
+        addExtreme(state, group, other._rows[otherGroup], 1);
+      }
+
+      @Override
+      Object result(State state, int group) {
+        return extreme(state, group);
+      }
+    };
+
+    /**
+     * Returns the type of the aggregated column given the type of the source
+     * column.
+     */
+    abstract Type type(Type type);
+
+    /**
+     * Returns the keys the values of the vector are compared on, or null if
+     * the aggregate does not compare values.
+     */
+    long[] keys(ColumnVector vector) {
+      return null;
+    }
+
+    /**
+     * Adds the non null value of the row to the state of the group.
+     */
+    abstract void add(State state, int group, int row);
+
+    /**
+     * Merges the state of a group aggregated over later rows into the state
+     * of the group.
+     */
+    abstract void merge(State state, int group, State other, int otherGroup);
+
+    abstract Object result(State state, int group);
+
+    private static Type checkNumber(Type type) {
+      if (type != Type.NUMBER)
+        throw new IllegalArgumentException();
+      return type;
+    }
+
+    private static void addSum(State state, int group, int row) {
+      state._counts[group]++;
+      state._sums[group] += state._vector.getDouble(row);
+    }
+
+    private static void mergeSum(State state, int group, State other,
+        int otherGroup) {
+      state._counts[group] += other._counts[otherGroup];
+      state._sums[group] += other._sums[otherGroup];
+    }
+
+    /**
+     * Keeps the row if its value is beyond the extreme of the group, of equal
+     * values the first row is kept.
+     */
+    private static void addExtreme(State state, int group, int row, int sign) {
+      if (row < 0)
+        return;
+
+      final int extreme = state._rows[group];
+      if (extreme >= 0) {
+        final int c = Long.compare(state._keys[row], state._keys[extreme]);
+        if (c * sign < 0 || (c == 0 && row > extreme))
+          return;
+      }
+      state._rows[group] = row;
+    }
+
+    private static Object extreme(State state, int group) {
+      final int row = state._rows[group];
+      return row < 0 ? null : state._vector.get(row);
+    }
+  }
+
+  private final int _columnIndex;
+  private final Function _function;
+
+  public DataTableAggregate(int columnIndex, Function function) {
+    if (function == null)
+      throw new NullPointerException();
+
+    _columnIndex = columnIndex;
+    _function = function;
+  }
+
+  public int columnIndex() {
+    return _columnIndex;
+  }
+
+  public Function function() {
+    return _function;
+  }
+
+}
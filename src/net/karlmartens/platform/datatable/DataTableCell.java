@@ -18,9 +18,12 @@
 
 package net.karlmartens.platform.datatable;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+
 import org.joda.time.DateTimeFieldType;
 import org.joda.time.LocalDate;
 import org.joda.time.LocalDateTime;
@@ -32,13 +35,16 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
 public class DataTableCell {
 
-  private final Map<String, Object> _properties = new HashMap<String, Object>();
-
   private Object _value;
   private String _formattedValue;
+  private Map<String, Object> _properties;
 
   public DataTableCell value(String value) {
     return doSetValue(value);
@@ -64,7 +70,7 @@ public class DataTableCell {
     return doSetValue(value);
   }
 
-  private DataTableCell doSetValue(Object value) {
+  DataTableCell doSetValue(Object value) {
     _value = value;
     return this;
   }
@@ -82,29 +88,39 @@ public class DataTableCell {
     return _formattedValue;
   }
 
+  /**
+   * Returns the properties of the cell, the map is only allocated once the
+   * properties are requested or set.
+   */
   public Map<String, Object> properties() {
+    if (_properties == null)
+      _properties = new HashMap<String, Object>();
     return _properties;
   }
 
   public Object property(String name) {
+    if (_properties == null)
+      return null;
+
     return _properties.get(name);
   }
 
   public void setProperty(String name, Object value) {
-    _properties.put(name, value);
+    properties().put(name, value);
   }
 
   public void release() {
-    _properties.clear();
+    _properties = null;
     _value = null;
     _formattedValue = null;
   }
 
+  boolean hasProperties() {
+    return _properties != null && !_properties.isEmpty();
+  }
+
   public JsonElement toJson() {
-    final JsonObject json = new JsonObject();
-    json.add("v", creasteJsonElement(_value));
-    json.addProperty("f", _formattedValue);
-    return json;
+    return toJson(_value, _formattedValue);
   }
 
   @Override
@@ -112,6 +128,167 @@ public class DataTableCell {
     return new Gson().toJson(toJson());
   }
 
+  static JsonElement toJson(Object value, String formattedValue) {
+    final JsonObject json = new JsonObject();
+    json.add("v", creasteJsonElement(value));
+    json.addProperty("f", formattedValue);
+    return json;
+  }
+
+  /**
+   * Writes the same json as {@link #toJson(Object, String)}, null members are
+   * left out.
+   */
+  static void toJson(JsonWriter writer, Object value, String formattedValue)
+      throws IOException {
+    writer.beginObject();
+    if (value != null) {
+      writer.name("v");
+      writeValue(writer, value);
+    }
+
+    if (formattedValue != null)
+      writer.name("f").value(formattedValue);
+    writer.endObject();
+  }
+
+  private static void writeValue(JsonWriter writer, Object o)
+      throws IOException {
+    if (o instanceof String) {
+      writer.value((String) o);
+      return;
+    }
+
+    if (o instanceof Boolean) {
+      writer.value(((Boolean) o).booleanValue());
+      return;
+    }
+
+    if (o instanceof Number) {
+      writer.value((Number) o);
+      return;
+    }
+
+    if (o instanceof BaseLocal) {
+      final BaseLocal date = (BaseLocal) o;
+      writer.beginObject();
+      writeField(writer, "year", DateTimeFieldType.year(), date);
+      writeField(writer, "month", DateTimeFieldType.monthOfYear(), date);
+      writeField(writer, "day", DateTimeFieldType.dayOfMonth(), date);
+      writeField(writer, "hour", DateTimeFieldType.hourOfDay(), date);
+      writeField(writer, "minute", DateTimeFieldType.minuteOfHour(), date);
+      writeField(writer, "second", DateTimeFieldType.secondOfMinute(), date);
+      writeField(writer, "millis", DateTimeFieldType.millisOfSecond(), date);
+      writer.endObject();
+      return;
+    }
+
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Reads a value written by {@link #toJson(JsonWriter, Object, String)} for
+   * a column of the type. Numbers without a fraction or exponent are read as
+   * an Integer if they fit, else as a Long, date objects as the Joda type of
+   * the column.
+   */
+  static Object readValue(JsonReader reader, Type type) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+
+    if (type == Type.STRING)
+      return reader.nextString();
+
+    if (type == Type.BOOLEAN)
+      return Boolean.valueOf(reader.nextBoolean());
+
+    if (type == Type.NUMBER) {
+      final String number = reader.nextString();
+      if (number.indexOf('.') < 0 && number.indexOf('e') < 0
+          && number.indexOf('E') < 0) {
+        try {
+          final long value = Long.parseLong(number);
+          if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+            return Integer.valueOf((int) value);
+
+          return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+          // Too large for a long, read as double
+        }
+      }
+      return Double.valueOf(number);
+    }
+
+    return readDate(reader, type);
+  }
+
+  /**
+   * Reads a json object of primitive, or nested, values into a map.
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> readProperties(JsonReader reader)
+      throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT)
+      throw new MalformedJsonException("Properties object expected");
+
+    return (Map<String, Object>) new Gson().fromJson(reader, Map.class);
+  }
+
+  private static Object readDate(JsonReader reader, Type type)
+      throws IOException {
+    int year = 1970;
+    int month = 1;
+    int day = 1;
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    int millis = 0;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      final String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+      } else if ("year".equals(name)) {
+        year = reader.nextInt();
+      } else if ("month".equals(name)) {
+        month = reader.nextInt();
+      } else if ("day".equals(name)) {
+        day = reader.nextInt();
+      } else if ("hour".equals(name)) {
+        hour = reader.nextInt();
+      } else if ("minute".equals(name)) {
+        minute = reader.nextInt();
+      } else if ("second".equals(name)) {
+        second = reader.nextInt();
+      } else if ("millis".equals(name)) {
+        millis = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (type == Type.DATE)
+      return new LocalDate(year, month, day);
+
+    if (type == Type.DATE_TIME)
+      return new LocalDateTime(year, month, day, hour, minute, second, millis);
+
+    if (type == Type.TIME_OF_DAY)
+      return new LocalTime(hour, minute, second, millis);
+
+    throw new MalformedJsonException("Unexpected object for " + type);
+  }
+
+  private static void writeField(JsonWriter writer, String name,
+      DateTimeFieldType field, BaseLocal local) throws IOException {
+    if (local.isSupported(field))
+      writer.name(name).value(local.get(field));
+  }
+
   private static JsonElement creasteJsonElement(Object o) {
     if (o == null)
       return JsonNull.INSTANCE;
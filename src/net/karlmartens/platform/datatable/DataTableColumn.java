@@ -18,6 +18,7 @@
 
 package net.karlmartens.platform.datatable;
 
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -37,6 +38,9 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 public class DataTableColumn {
 
@@ -94,6 +98,16 @@ public class DataTableColumn {
         return format(value);
       }
 
+      @Override
+      ColumnVector createVector() {
+        return new StringVector();
+      }
+
+      @Override
+      ColumnVector createMappedVector() {
+        return new MappedStringVector();
+      }
+
       @Override
       JsonElement toJson() {
         return new JsonPrimitive("string");
@@ -120,6 +134,16 @@ public class DataTableColumn {
         return format.format(value);
       }
 
+      @Override
+      ColumnVector createVector() {
+        return new NumberVector();
+      }
+
+      @Override
+      ColumnVector createMappedVector() {
+        return new MappedNumberVector();
+      }
+
       @Override
       JsonElement toJson() {
         return new JsonPrimitive("number");
@@ -145,6 +169,16 @@ public class DataTableColumn {
         return format(value);
       }
 
+      @Override
+      ColumnVector createVector() {
+        return new BooleanVector();
+      }
+
+      @Override
+      ColumnVector createMappedVector() {
+        return new MappedBooleanVector();
+      }
+
       @Override
       JsonElement toJson() {
         return new JsonPrimitive("boolean");
@@ -168,6 +202,16 @@ public class DataTableColumn {
         return DateTimeFormat.forPattern(pattern).print((LocalDate) value);
       }
 
+      @Override
+      ColumnVector createVector() {
+        return new DateVector();
+      }
+
+      @Override
+      ColumnVector createMappedVector() {
+        return new MappedIntVector(new DateVector());
+      }
+
       @Override
       JsonElement toJson() {
         return new JsonPrimitive("date");
@@ -191,6 +235,16 @@ public class DataTableColumn {
         return DateTimeFormat.forPattern(pattern).print((LocalDateTime) value);
       }
 
+      @Override
+      ColumnVector createVector() {
+        return new DateTimeVector();
+      }
+
+      @Override
+      ColumnVector createMappedVector() {
+        return new MappedLongVector(new DateTimeVector());
+      }
+
       @Override
       JsonElement toJson() {
         return new JsonPrimitive("dateTime");
@@ -214,6 +268,16 @@ public class DataTableColumn {
         return DateTimeFormat.forPattern(pattern).print((LocalTime) value);
       }
 
+      @Override
+      ColumnVector createVector() {
+        return new TimeOfDayVector();
+      }
+
+      @Override
+      ColumnVector createMappedVector() {
+        return new MappedIntVector(new TimeOfDayVector());
+      }
+
       @Override
       JsonElement toJson() {
         return new JsonPrimitive("timeOfDay");
@@ -228,6 +292,10 @@ public class DataTableColumn {
 
     abstract JsonElement toJson();
 
+    abstract ColumnVector createVector();
+
+    abstract ColumnVector createMappedVector();
+
   }
 
   private final Type _type;
@@ -318,6 +386,67 @@ public class DataTableColumn {
     return new Gson().toJson(toJson());
   }
 
+  /**
+   * Reads a column written by {@link #toJson()}, members other than the type
+   * are optional.
+   */
+  static DataTableColumn fromJson(JsonReader reader) throws IOException {
+    Type type = null;
+    String id = null;
+    String label = null;
+    String pattern = null;
+    Role role = null;
+    Map<String, Object> properties = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      final String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+      } else if ("type".equals(name)) {
+        type = type(reader.nextString());
+      } else if ("id".equals(name)) {
+        id = reader.nextString();
+      } else if ("label".equals(name)) {
+        label = reader.nextString();
+      } else if ("pattern".equals(name)) {
+        pattern = reader.nextString();
+      } else if ("role".equals(name)) {
+        role = role(reader.nextString());
+      } else if ("p".equals(name)) {
+        properties = DataTableCell.readProperties(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (type == null)
+      throw new MalformedJsonException("Column type expected");
+
+    final DataTableColumn column = new DataTableColumn(type).id(id)
+        .label(label).pattern(pattern).role(role);
+    if (properties != null)
+      column.properties(properties);
+    return column;
+  }
+
+  private static Type type(String name) throws IOException {
+    for (Type type : Type.values()) {
+      if (type.toJson().getAsString().equals(name))
+        return type;
+    }
+    throw new MalformedJsonException("Unknown column type: " + name);
+  }
+
+  private static Role role(String name) throws IOException {
+    for (Role role : Role.values()) {
+      if (role.toJson().getAsString().equals(name))
+        return role;
+    }
+    throw new MalformedJsonException("Unknown column role: " + name);
+  }
+
   void release() {
     _properties.clear();
 
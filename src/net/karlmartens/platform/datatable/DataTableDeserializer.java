@@ -0,0 +1,208 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static net.karlmartens.platform.datatable.DataTableSerializer.BOOLEAN;
+import static net.karlmartens.platform.datatable.DataTableSerializer.DATE;
+import static net.karlmartens.platform.datatable.DataTableSerializer.DATE_TIME;
+import static net.karlmartens.platform.datatable.DataTableSerializer.DOUBLE;
+import static net.karlmartens.platform.datatable.DataTableSerializer.INTEGER;
+import static net.karlmartens.platform.datatable.DataTableSerializer.LIST;
+import static net.karlmartens.platform.datatable.DataTableSerializer.LONG;
+import static net.karlmartens.platform.datatable.DataTableSerializer.MAGIC;
+import static net.karlmartens.platform.datatable.DataTableSerializer.MAP;
+import static net.karlmartens.platform.datatable.DataTableSerializer.NULL;
+import static net.karlmartens.platform.datatable.DataTableSerializer.STRING;
+import static net.karlmartens.platform.datatable.DataTableSerializer.TIME_OF_DAY;
+import static net.karlmartens.platform.datatable.DataTableSerializer.VERSION;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Role;
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.Deserializer;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.StringDeserializer;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+
+/**
+ * Reads a snapshot written by {@link DataTableSerializer}. The rows are
+ * allocated up front and every column is read with bulk primitive reads into
+ * its vector.
+ * <p>
+ * A snapshot file can also be mapped, see {@link #map(Path)}, the column
+ * values are then read from the mapped file instead of the heap.
+ *
+ * @author karl
+ *
+ */
+public final class DataTableDeserializer implements Deserializer<DataTable> {
+
+  private static final DataTableDeserializer _INSTANCE = new DataTableDeserializer();
+
+  private DataTableDeserializer() {
+    // Reduced visibility
+  }
+
+  @Override
+  public DataTable read(ReadBuffer buffer) {
+    return read(buffer, false);
+  }
+
+  public static DataTableDeserializer instance() {
+    return _INSTANCE;
+  }
+
+  /**
+   * Maps the snapshot file read only. The values of the columns stay in the
+   * mapped file and are shared through the page cache, only the string
+   * dictionaries, null flags, formatted values and properties are read onto
+   * the heap. The returned table rejects changes to its rows, columns and
+   * values. Snapshots are limited to 2GB.
+   */
+  public static DataTable map(Path path) {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0,
+          channel.size());
+      return read(ReadBuffer.wrap(buffer), true);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static DataTable read(ReadBuffer buffer, boolean mapped) {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+      throw new IllegalStateException("Not a DataTable snapshot.");
+
+    final int columnCount = buffer.getInt();
+    final int rowCount = buffer.getInt();
+    final DataTable table = new DataTable();
+    table.setTableProperties(readProperties(buffer));
+
+    for (int col = 0; col < columnCount; col++) {
+      final Type type = Type.values()[buffer.getByte()];
+      final byte role = buffer.getByte();
+      final DataTableColumn column = new DataTableColumn(type)//
+          .role(role < 0 ? null : Role.values()[role])//
+          .id(readString(buffer))//
+          .label(readString(buffer))//
+          .pattern(readString(buffer))//
+          .properties(readProperties(buffer));
+      if (mapped) {
+        table.addColumn(column, type.createMappedVector());
+      } else {
+        table.addColumn(column);
+      }
+    }
+
+    table.addRows(rowCount);
+    for (int row = buffer.getInt(); row >= 0; row = buffer.getInt())
+      table.setRowProperties(row, readProperties(buffer));
+
+    for (int col = 0; col < columnCount; col++) {
+      final ColumnVector vector = table.vector(col);
+      vector.read(buffer);
+
+      for (int row = buffer.getInt(); row >= 0; row = buffer.getInt())
+        vector.formattedValue(row, StringDeserializer.instance().read(buffer));
+
+      for (int row = buffer.getInt(); row >= 0; row = buffer.getInt())
+        vector.properties(row).putAll(readProperties(buffer));
+    }
+
+    if (mapped)
+      table.setReadOnly();
+    return table;
+  }
+
+  private static String readString(ReadBuffer buffer) {
+    if (buffer.getByte() == NULL)
+      return null;
+
+    return StringDeserializer.instance().read(buffer);
+  }
+
+  private static Map<String, Object> readProperties(ReadBuffer buffer) {
+    final int size = buffer.getInt();
+    final Map<String, Object> properties = new HashMap<String, Object>();
+    for (int i = 0; i < size; i++) {
+      final String name = StringDeserializer.instance().read(buffer);
+      properties.put(name, readValue(buffer));
+    }
+    return properties;
+  }
+
+  private static Object readValue(ReadBuffer buffer) {
+    final byte tag = buffer.getByte();
+    if (tag == NULL)
+      return null;
+
+    if (tag == STRING)
+      return StringDeserializer.instance().read(buffer);
+
+    if (tag == BOOLEAN)
+      return Boolean.valueOf(buffer.getByte() != 0);
+
+    if (tag == INTEGER)
+      return Integer.valueOf(buffer.getInt());
+
+    if (tag == LONG)
+      return Long.valueOf(buffer.getLong());
+
+    if (tag == DOUBLE)
+      return Double.valueOf(buffer.getDouble());
+
+    if (tag == DATE)
+      return new LocalDate(buffer.getInt(), buffer.getByte(), buffer.getByte());
+
+    if (tag == DATE_TIME) {
+      final LocalDate date = new LocalDate(buffer.getInt(), buffer.getByte(),
+          buffer.getByte());
+      return date.toLocalDateTime(LocalTime.fromMillisOfDay(buffer.getInt()));
+    }
+
+    if (tag == TIME_OF_DAY)
+      return LocalTime.fromMillisOfDay(buffer.getInt());
+
+    if (tag == MAP)
+      return readProperties(buffer);
+
+    if (tag == LIST) {
+      final int size = buffer.getInt();
+      final List<Object> list = new ArrayList<Object>(size);
+      for (int i = 0; i < size; i++)
+        list.add(readValue(buffer));
+      return list;
+    }
+
+    throw new IllegalStateException("Unknown property type " + tag + ".");
+  }
+
+}
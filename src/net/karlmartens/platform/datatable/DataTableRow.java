@@ -28,9 +28,8 @@ import com.google.gson.JsonObject;
 
 public class DataTableRow {
 
-  private final Map<String, Object> _properties = new HashMap<String, Object>();
-
   private DataTableCell[] _cells = new DataTableCell[0];
+  private Map<String, Object> _properties;
 
   public DataTableRow(int cellCount) {
     size(cellCount);
@@ -58,19 +57,36 @@ public class DataTableRow {
     return this;
   }
 
+  /**
+   * Returns the properties of the row, the map is only allocated once the
+   * properties are requested or set.
+   */
   public Map<String, Object> properties() {
+    if (_properties == null)
+      _properties = new HashMap<String, Object>();
     return _properties;
   }
 
   public Object property(String name) {
+    if (_properties == null)
+      return null;
+
     return _properties.get(name);
   }
 
   public DataTableRow setProperty(String name, Object value) {
-    _properties.put(name, value);
+    properties().put(name, value);
     return this;
   }
 
+  boolean hasProperties() {
+    return _properties != null && !_properties.isEmpty();
+  }
+
+  int size() {
+    return _cells.length;
+  }
+
   public DataTableRow size(int columnCount) {
     if (columnCount < 0)
       throw new IllegalArgumentException();
@@ -108,7 +124,7 @@ public class DataTableRow {
   }
 
   void release() {
-    _properties.clear();
+    _properties = null;
     _cells = new DataTableCell[0];
   }
 
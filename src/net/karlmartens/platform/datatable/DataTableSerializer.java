@@ -0,0 +1,195 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Role;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+import net.karlmartens.platform.io.Serializer;
+import net.karlmartens.platform.io.StringSerializer;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+
+/**
+ * Writes a binary snapshot of a {@link DataTable}: the column metadata, the
+ * properties and the typed values of every column, written in bulk straight
+ * from the column vectors. Formatted values and properties are written
+ * sparsely, as a list of row indices terminated by -1. Read back with
+ * {@link DataTableDeserializer}.
+ * <p>
+ * Property values can be null, strings, booleans, numbers, Joda local dates
+ * and times, and maps and lists of those.
+ *
+ * @author karl
+ *
+ */
+public final class DataTableSerializer implements Serializer<DataTable> {
+
+  static final int MAGIC = 0x4454424c;
+  static final int VERSION = 1;
+
+  static final byte NULL = 0;
+  static final byte STRING = 1;
+  static final byte BOOLEAN = 2;
+  static final byte INTEGER = 3;
+  static final byte LONG = 4;
+  static final byte DOUBLE = 5;
+  static final byte DATE = 6;
+  static final byte DATE_TIME = 7;
+  static final byte TIME_OF_DAY = 8;
+  static final byte MAP = 9;
+  static final byte LIST = 10;
+
+  private static final DataTableSerializer _INSTANCE = new DataTableSerializer();
+
+  private DataTableSerializer() {
+    // Reduced visibility
+  }
+
+  @Override
+  public void write(WriteBuffer buffer, DataTable table) {
+    final int columnCount = table.getNumberOfColumns();
+    final int rowCount = table.getNumberOfRows();
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(columnCount);
+    buffer.putInt(rowCount);
+    writeProperties(buffer, table.getTableProperties());
+
+    for (int col = 0; col < columnCount; col++) {
+      final Role role = table.getColumnRole(col);
+      buffer.putByte((byte) table.getColumnType(col).ordinal());
+      buffer.putByte(role == null ? -1 : (byte) role.ordinal());
+      writeString(buffer, table.getColumnId(col));
+      writeString(buffer, table.getColumnLabel(col));
+      writeString(buffer, table.getColumnPattern(col));
+      writeProperties(buffer, table.getColumnProperties(col));
+    }
+
+    for (int row = 0; row < rowCount; row++) {
+      final Map<String, Object> properties = table.rowProperties(row);
+      if (properties != null && !properties.isEmpty()) {
+        buffer.putInt(row);
+        writeProperties(buffer, properties);
+      }
+    }
+    buffer.putInt(-1);
+
+    for (int col = 0; col < columnCount; col++) {
+      final ColumnVector vector = table.vector(col);
+      vector.write(buffer);
+
+      for (int row = 0; row < rowCount; row++) {
+        final String formattedValue = vector.formattedValue(row);
+        if (formattedValue != null) {
+          buffer.putInt(row);
+          StringSerializer.instance().write(buffer, formattedValue);
+        }
+      }
+      buffer.putInt(-1);
+
+      for (int row = 0; row < rowCount; row++) {
+        if (vector.hasProperties(row)) {
+          buffer.putInt(row);
+          writeProperties(buffer, vector.properties(row));
+        }
+      }
+      buffer.putInt(-1);
+    }
+  }
+
+  public static DataTableSerializer instance() {
+    return _INSTANCE;
+  }
+
+  private static void writeString(WriteBuffer buffer, String value) {
+    if (value == null) {
+      buffer.putByte(NULL);
+      return;
+    }
+
+    buffer.putByte(STRING);
+    StringSerializer.instance().write(buffer, value);
+  }
+
+  private static void writeProperties(WriteBuffer buffer,
+      Map<String, Object> properties) {
+    buffer.putInt(properties.size());
+    for (Entry<String, Object> e : properties.entrySet()) {
+      StringSerializer.instance().write(buffer, e.getKey());
+      writeValue(buffer, e.getValue());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeValue(WriteBuffer buffer, Object value) {
+    if (value == null) {
+      buffer.putByte(NULL);
+    } else if (value instanceof String) {
+      buffer.putByte(STRING);
+      StringSerializer.instance().write(buffer, (String) value);
+    } else if (value instanceof Boolean) {
+      buffer.putByte(BOOLEAN);
+      buffer.putByte(((Boolean) value).booleanValue() ? (byte) 1 : (byte) 0);
+    } else if (value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      buffer.putByte(INTEGER);
+      buffer.putInt(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      buffer.putByte(LONG);
+      buffer.putLong(((Long) value).longValue());
+    } else if (value instanceof Number) {
+      buffer.putByte(DOUBLE);
+      buffer.putDouble(((Number) value).doubleValue());
+    } else if (value instanceof LocalDate) {
+      final LocalDate date = (LocalDate) value;
+      buffer.putByte(DATE);
+      buffer.putInt(date.getYear());
+      buffer.putByte((byte) date.getMonthOfYear());
+      buffer.putByte((byte) date.getDayOfMonth());
+    } else if (value instanceof LocalDateTime) {
+      final LocalDateTime dateTime = (LocalDateTime) value;
+      buffer.putByte(DATE_TIME);
+      buffer.putInt(dateTime.getYear());
+      buffer.putByte((byte) dateTime.getMonthOfYear());
+      buffer.putByte((byte) dateTime.getDayOfMonth());
+      buffer.putInt(dateTime.getMillisOfDay());
+    } else if (value instanceof LocalTime) {
+      buffer.putByte(TIME_OF_DAY);
+      buffer.putInt(((LocalTime) value).getMillisOfDay());
+    } else if (value instanceof Map) {
+      buffer.putByte(MAP);
+      writeProperties(buffer, (Map<String, Object>) value);
+    } else if (value instanceof List) {
+      final List<Object> list = (List<Object>) value;
+      buffer.putByte(LIST);
+      buffer.putInt(list.size());
+      for (Object o : list)
+        writeValue(buffer, o);
+    } else {
+      throw new IllegalArgumentException();
+    }
+  }
+
+}
@@ -40,4 +40,29 @@ public final class DataTableSort {
     return _decending;
   }
 
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + _columnIndex;
+    result = prime * result + (_decending ? 1231 : 1237);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    DataTableSort other = (DataTableSort) obj;
+    if (_columnIndex != other._columnIndex)
+      return false;
+    if (_decending != other._decending)
+      return false;
+    return true;
+  }
+
 }
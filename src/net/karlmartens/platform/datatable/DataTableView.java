@@ -0,0 +1,353 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Map;
+
+import net.karlmartens.platform.datatable.DataTable.RowCursor;
+import net.karlmartens.platform.datatable.DataTableColumn.Role;
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.util.Range;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Read only view of a {@link DataTable} through a row permutation and a column
+ * projection, nothing is copied from the table. Views can be stacked, the
+ * indices of a view over a view are resolved to table indices when the view
+ * is created so every lookup goes through a single indirection.
+ * <p>
+ * A view refers to the rows of the table by index. A view of all rows follows
+ * the table, any other view has to be recreated after rows are inserted,
+ * removed or the table is sorted.
+ *
+ * @author karl
+ *
+ */
+public class DataTableView {
+
+  private final DataTable _table;
+  private final int[] _rows;
+  private final int[] _columns;
+
+  public DataTableView(DataTable table) {
+    this(table, null, null);
+  }
+
+  /**
+   * Creates a view of the rows and columns of the table, in the given order.
+   * A null array selects all rows, or all columns. The arrays are not copied.
+   */
+  public DataTableView(DataTable table, int[] rows, int[] columns) {
+    if (table == null)
+      throw new NullPointerException();
+
+    _table = table;
+    _rows = check(rows, table.getNumberOfRows());
+    _columns = check(columns, table.getNumberOfColumns());
+  }
+
+  /**
+   * Creates a view of the rows and columns of another view, indices are those
+   * of the view.
+   */
+  public DataTableView(DataTableView view, int[] rows, int[] columns) {
+    this(view._table, resolve(view._rows, check(rows,
+        view.getNumberOfRows())), resolve(view._columns, check(columns,
+        view.getNumberOfColumns())));
+  }
+
+  public String getColumnId(int columnIndex) {
+    return _table.getColumnId(tableColumn(columnIndex));
+  }
+
+  public String getColumnLabel(int columnIndex) {
+    return _table.getColumnLabel(tableColumn(columnIndex));
+  }
+
+  public String getColumnPattern(int columnIndex) {
+    return _table.getColumnPattern(tableColumn(columnIndex));
+  }
+
+  public Map<String, Object> getColumnProperties(int columnIndex) {
+    return _table.getColumnProperties(tableColumn(columnIndex));
+  }
+
+  public Object getColumnProperty(int columnIndex, String name) {
+    return _table.getColumnProperty(tableColumn(columnIndex), name);
+  }
+
+  /**
+   * Returns the smallest and largest value of the column among the rows of
+   * the view.
+   */
+  public Range getColumnRange(int columnIndex) {
+    final int column = tableColumn(columnIndex);
+    if (_rows == null)
+      return _table.getColumnRange(column);
+
+    final ColumnVector vector = _table.vector(column);
+    final Comparator<Object> comparator = vector.type().comparator();
+    int min = -1;
+    int max = -1;
+    for (int row : _rows) {
+      if (vector.isNull(row))
+        continue;
+
+      if (min < 0 || vector.compareValues(row, min, comparator) < 0)
+        min = row;
+
+      if (max < 0 || vector.compareValues(row, max, comparator) > 0)
+        max = row;
+    }
+    return vector.range(min, max);
+  }
+
+  public Role getColumnRole(int columnIndex) {
+    return _table.getColumnRole(tableColumn(columnIndex));
+  }
+
+  public Type getColumnType(int columnIndex) {
+    return _table.getColumnType(tableColumn(columnIndex));
+  }
+
+  /**
+   * Returns the rows of the view accepted by all filters, filter column
+   * indices are those of the view. Range and value filters are evaluated by
+   * the table, with its indexes and zone maps, the remaining filters are only
+   * called for the rows of the view still selected.
+   */
+  public int[] getFilteredRows(DataTableFilter... filters) {
+    final DataTableFilter[] tableFilters = new DataTableFilter[filters.length];
+    final DataTableFilter[] rowFilters = new DataTableFilter[filters.length];
+    int tableFilterCount = 0;
+    int rowFilterCount = 0;
+    for (DataTableFilter filter : filters) {
+      final DataTableFilter tableFilter = tableFilter(filter);
+      if (tableFilter != null) {
+        tableFilters[tableFilterCount++] = tableFilter;
+      } else {
+        rowFilters[rowFilterCount++] = filter;
+      }
+    }
+
+    final BitSet selected;
+    if (tableFilterCount == 0) {
+      selected = null;
+    } else {
+      selected = new BitSet(_table.getNumberOfRows());
+      for (int row : _table.getFilteredRows(Arrays.copyOf(tableFilters,
+          tableFilterCount)))
+        selected.set(row);
+    }
+
+    final RowCursor cursor = _table.cursor(_columns);
+    final int rowCount = getNumberOfRows();
+    final int[] accepted = new int[rowCount];
+    int index = 0;
+    for (int i = 0; i < rowCount; i++) {
+      final int row = tableRow(i);
+      if (selected != null && !selected.get(row))
+        continue;
+
+      if (accepts(rowFilters, rowFilterCount, cursor.moveTo(row)))
+        accepted[index++] = i;
+    }
+    return Arrays.copyOf(accepted, index);
+  }
+
+  public String getFormattedValue(int rowIndex, int columnIndex) {
+    return _table.getFormattedValue(tableRow(rowIndex),
+        tableColumn(columnIndex));
+  }
+
+  public int getNumberOfColumns() {
+    return _columns == null ? _table.getNumberOfColumns() : _columns.length;
+  }
+
+  public int getNumberOfRows() {
+    return _rows == null ? _table.getNumberOfRows() : _rows.length;
+  }
+
+  public Map<String, Object> getProperties(int rowIndex, int columnIndex) {
+    return _table.getProperties(tableRow(rowIndex), tableColumn(columnIndex));
+  }
+
+  public Object getProperty(int rowIndex, int columnIndex, String name) {
+    return _table.getProperty(tableRow(rowIndex), tableColumn(columnIndex),
+        name);
+  }
+
+  public Map<String, Object> getRowProperties(int rowIndex) {
+    return _table.getRowProperties(tableRow(rowIndex));
+  }
+
+  public Object getRowProperty(int rowIndex, String name) {
+    return _table.getRowProperty(tableRow(rowIndex), name);
+  }
+
+  public int[] getSortedRows(int... columnIndices) {
+    final DataTableSort[] sort = new DataTableSort[columnIndices.length];
+    for (int i = 0; i < columnIndices.length; i++)
+      sort[i] = new DataTableSort(columnIndices[i], false);
+    return getSortedRows(sort);
+  }
+
+  /**
+   * Returns the rows of the view in sorted order, rows with equal values keep
+   * their order in the view.
+   */
+  public int[] getSortedRows(DataTableSort... sort) {
+    final DataTableSort[] tableSort = new DataTableSort[sort.length];
+    for (int i = 0; i < sort.length; i++)
+      tableSort[i] = new DataTableSort(tableColumn(sort[i].columnIndex()),
+          sort[i].decending());
+
+    final ColumnVector[] vectors = new ColumnVector[_table
+        .getNumberOfColumns()];
+    for (DataTableSort s : tableSort)
+      vectors[s.columnIndex()] = _table.vector(s.columnIndex());
+
+    return new RowSorter(vectors, tableSort, _rows).sort(getNumberOfRows());
+  }
+
+  public DataTable getTable() {
+    return _table;
+  }
+
+  /**
+   * Returns the index in the table of the column of the view.
+   */
+  public int getTableColumnIndex(int columnIndex) {
+    return tableColumn(columnIndex);
+  }
+
+  public Map<String, Object> getTableProperties() {
+    return _table.getTableProperties();
+  }
+
+  public Object getTableProperty(String name) {
+    return _table.getTableProperty(name);
+  }
+
+  /**
+   * Returns the index in the table of the row of the view.
+   */
+  public int getTableRowIndex(int rowIndex) {
+    return tableRow(rowIndex);
+  }
+
+  public Object getValue(int rowIndex, int columnIndex) {
+    return _table.getValue(tableRow(rowIndex), tableColumn(columnIndex));
+  }
+
+  public JsonElement toJson() {
+    return _table.toJson(_rows, _columns);
+  }
+
+  /**
+   * Writes the same json as {@link #toJson()} one cell at a time, see
+   * {@link DataTable#toJson(Writer)}.
+   */
+  public void toJson(Writer writer) throws IOException {
+    _table.toJson(writer, _rows, _columns);
+  }
+
+  @Override
+  public String toString() {
+    final StringWriter writer = new StringWriter();
+    try {
+      toJson(writer);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return writer.toString();
+  }
+
+  private int tableRow(int rowIndex) {
+    if (_rows == null)
+      return rowIndex;
+
+    return _rows[rowIndex];
+  }
+
+  private int tableColumn(int columnIndex) {
+    if (_columns == null)
+      return columnIndex;
+
+    return _columns[columnIndex];
+  }
+
+  /**
+   * Returns the equivalent filter on the columns of the table, or null if the
+   * filter has to be evaluated on the rows of the view.
+   */
+  private DataTableFilter tableFilter(DataTableFilter filter) {
+    if (filter.getClass() == RangeDataTableFilter.class) {
+      final RangeDataTableFilter range = (RangeDataTableFilter) filter;
+      return new RangeDataTableFilter(range.type(),
+          tableColumn(range.columnIndex()), range.from(), range.to());
+    }
+
+    if (filter.getClass() == ValueDataTableFilter.class) {
+      final ValueDataTableFilter value = (ValueDataTableFilter) filter;
+      return new ValueDataTableFilter(tableColumn(value.columnIndex()), value
+          .values().toArray());
+    }
+
+    return null;
+  }
+
+  private static boolean accepts(DataTableFilter[] filters, int count,
+      DataTableRow row) {
+    for (int i = 0; i < count; i++) {
+      if (!filters[i].accepts(row))
+        return false;
+    }
+    return true;
+  }
+
+  private static int[] check(int[] indices, int count) {
+    if (indices == null)
+      return null;
+
+    for (int index : indices) {
+      if (index < 0 || index >= count)
+        throw new IndexOutOfBoundsException();
+    }
+    return indices;
+  }
+
+  private static int[] resolve(int[] base, int[] indices) {
+    if (base == null || indices == null)
+      return indices == null ? base : indices;
+
+    final int[] resolved = new int[indices.length];
+    for (int i = 0; i < indices.length; i++)
+      resolved[i] = base[indices[i]];
+    return resolved;
+  }
+
+}
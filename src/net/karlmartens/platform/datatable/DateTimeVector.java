@@ -0,0 +1,69 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+
+import org.joda.time.Chronology;
+import org.joda.time.LocalDateTime;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Stores {@link Type#DATE_TIME} values as local milliseconds since the epoch.
+ *
+ * @author karl
+ *
+ */
+final class DateTimeVector extends LongVector {
+
+  private static final Chronology CHRONOLOGY = ISOChronology.getInstanceUTC();
+
+  @Override
+  Type type() {
+    return Type.DATE_TIME;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof LocalDateTime;
+  }
+
+  @Override
+  long encode(Object value) {
+    if (!supports(value))
+      throw new IllegalArgumentException();
+
+    final LocalDateTime dateTime = (LocalDateTime) value;
+    return CHRONOLOGY.getDateTimeMillis(dateTime.getYear(),
+        dateTime.getMonthOfYear(), dateTime.getDayOfMonth(),
+        dateTime.getHourOfDay(), dateTime.getMinuteOfHour(),
+        dateTime.getSecondOfMinute(), dateTime.getMillisOfSecond());
+  }
+
+  @Override
+  long encode(long millis) {
+    return millis;
+  }
+
+  @Override
+  Object decode(long value) {
+    return new LocalDateTime(value, CHRONOLOGY);
+  }
+
+}
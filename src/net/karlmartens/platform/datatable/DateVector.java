@@ -0,0 +1,70 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import static org.joda.time.DateTimeConstants.MILLIS_PER_DAY;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+
+import org.joda.time.Chronology;
+import org.joda.time.LocalDate;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Stores {@link Type#DATE} values as the number of days since the epoch.
+ *
+ * @author karl
+ *
+ */
+final class DateVector extends IntVector {
+
+  private static final Chronology CHRONOLOGY = ISOChronology.getInstanceUTC();
+
+  @Override
+  Type type() {
+    return Type.DATE;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof LocalDate;
+  }
+
+  @Override
+  int encode(Object value) {
+    if (!supports(value))
+      throw new IllegalArgumentException();
+
+    final LocalDate date = (LocalDate) value;
+    final long millis = CHRONOLOGY.getDateTimeMillis(date.getYear(),
+        date.getMonthOfYear(), date.getDayOfMonth(), 0);
+    return (int) (millis / MILLIS_PER_DAY);
+  }
+
+  @Override
+  int encode(long millis) {
+    return (int) Math.floorDiv(millis, (long) MILLIS_PER_DAY);
+  }
+
+  @Override
+  Object decode(int value) {
+    return new LocalDate((long) value * MILLIS_PER_DAY, CHRONOLOGY);
+  }
+
+}
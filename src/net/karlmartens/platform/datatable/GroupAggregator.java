@@ -0,0 +1,362 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import net.karlmartens.platform.datatable.DataTableAggregate.Function;
+
+/**
+ * Groups rows on the sort keys of one or more columns (see
+ * {@link ColumnVector#sortKeys()}) and aggregates the values of every group,
+ * rows whose keys are all equal form a group. Groups are returned in ascending
+ * key order, a group is represented by its first row.
+ * <p>
+ * Rows are assigned to groups with an open addressing hash table over the
+ * primitive keys, every group has a partial {@link State} per aggregate. The
+ * parallel aggregation splits the rows into chunks, each chunk is aggregated
+ * by a fork/join worker with its own hash table, and the partial states of
+ * neighbouring chunks are merged. The chunks depend on the parallelism of the
+ * pool, sums of doubles can therefore differ in the last bits between runs on
+ * different machines and from the sequential aggregation.
+ * <p>
+ * When the number of groups grows beyond a quarter of the rows, hashing stops
+ * paying off against ordering the groups afterwards, the rows are then sorted
+ * with a {@link RowSorter} and groups are the runs of equal keys.
+ *
+ * @author karl
+ *
+ */
+final class GroupAggregator {
+
+  private static final int MIN_HASH_GROUPS = 1024;
+  private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+  private final long[][] _keys;
+  private final Function[] _functions;
+  private final State[] _states;
+  private final int _limit;
+
+  private int[] _slots = new int[0];
+  private int[] _firstRows = new int[0];
+  private int[] _order;
+  private int _groupCount = 0;
+
+  private GroupAggregator(ColumnVector[] vectors, int[] keyColumns,
+      DataTableAggregate[] aggregates, int rowCount) {
+    _keys = new long[keyColumns.length][];
+    for (int i = 0; i < keyColumns.length; i++)
+      _keys[i] = vectors[keyColumns[i]].sortKeys();
+
+    _functions = new Function[aggregates.length];
+    _states = new State[aggregates.length];
+    for (int i = 0; i < aggregates.length; i++) {
+      final ColumnVector vector = vectors[aggregates[i].columnIndex()];
+      _functions[i] = aggregates[i].function();
+      _states[i] = new State(vector, _functions[i].keys(vector));
+    }
+    _limit = Math.max(MIN_HASH_GROUPS, rowCount / 4);
+  }
+
+  /**
+   * Creates an empty aggregator sharing the keys of the template.
+   */
+  private GroupAggregator(GroupAggregator template) {
+    _keys = template._keys;
+    _functions = template._functions;
+    _states = new State[_functions.length];
+    for (int i = 0; i < _states.length; i++)
+      _states[i] = new State(template._states[i]._vector,
+          template._states[i]._keys);
+    _limit = template._limit;
+    _slots = new int[64];
+    Arrays.fill(_slots, -1);
+  }
+
+  static GroupAggregator aggregate(ColumnVector[] vectors, int[] keyColumns,
+      DataTableAggregate[] aggregates, int rowCount, boolean parallel) {
+    final GroupAggregator template = new GroupAggregator(vectors, keyColumns,
+        aggregates, rowCount);
+
+    GroupAggregator aggregator;
+    if (parallel && rowCount > PARALLEL_THRESHOLD) {
+      final int chunkSize = Math.max(PARALLEL_THRESHOLD, rowCount
+          / (ForkJoinPool.getCommonPoolParallelism() * 4));
+      aggregator = ForkJoinPool.commonPool().invoke(
+          new AggregateTask(template, 0, rowCount, chunkSize));
+    } else {
+      aggregator = new GroupAggregator(template);
+      if (!aggregator.add(0, rowCount))
+        aggregator = null;
+    }
+
+    if (aggregator != null) {
+      aggregator.order();
+      return aggregator;
+    }
+
+    final RowSorter sorter = new RowSorter(template._keys);
+    aggregator = new GroupAggregator(template);
+    aggregator.addRuns(parallel ? sorter.parallelSort(rowCount) : sorter
+        .sort(rowCount));
+    return aggregator;
+  }
+
+  int groupCount() {
+    return _groupCount;
+  }
+
+  /**
+   * Returns the first row of the group at the position in key order.
+   */
+  int firstRow(int position) {
+    return _firstRows[group(position)];
+  }
+
+  /**
+   * Returns the sort key of a key column for the group at the position in key
+   * order.
+   */
+  long key(int keyColumn, int position) {
+    return _keys[keyColumn][firstRow(position)];
+  }
+
+  /**
+   * Returns the value of the aggregate for the group at the position in key
+   * order.
+   */
+  Object result(int aggregate, int position) {
+    return _functions[aggregate].result(_states[aggregate], group(position));
+  }
+
+  private int group(int position) {
+    return _order == null ? position : _order[position];
+  }
+
+  /**
+   * Aggregates the rows between fromIndex and toIndex, returns false if there
+   * are too many groups.
+   */
+  private boolean add(int fromIndex, int toIndex) {
+    for (int row = fromIndex; row < toIndex; row++) {
+      final int group = find(row);
+      if (group < 0)
+        return false;
+
+      accumulate(group, row);
+    }
+    return true;
+  }
+
+  /**
+   * Aggregates the rows sorted on their keys, every run of equal keys is a
+   * group.
+   */
+  private void addRuns(int[] rows) {
+    for (int i = 0; i < rows.length; i++) {
+      final int row = rows[i];
+      if (i == 0 || !equal(rows[i - 1], row))
+        newGroup(row);
+
+      accumulate(_groupCount - 1, row);
+    }
+  }
+
+  /**
+   * Merges the partial states of an aggregator of later rows, returns false
+   * if there are too many groups.
+   */
+  private boolean merge(GroupAggregator other) {
+    for (int otherGroup = 0; otherGroup < other._groupCount; otherGroup++) {
+      final int group = find(other._firstRows[otherGroup]);
+      if (group < 0)
+        return false;
+
+      for (int i = 0; i < _functions.length; i++)
+        _functions[i].merge(_states[i], group, other._states[i], otherGroup);
+    }
+    return true;
+  }
+
+  private void accumulate(int group, int row) {
+    for (int i = 0; i < _functions.length; i++) {
+      if (!_states[i]._vector.isNull(row))
+        _functions[i].add(_states[i], group, row);
+    }
+  }
+
+  /**
+   * Returns the group of the row, the group is added if the keys of the row
+   * were not seen before. Returns -1 if the limit of groups is reached.
+   */
+  private int find(int row) {
+    int slot = hash(row) & (_slots.length - 1);
+    while (_slots[slot] >= 0) {
+      final int group = _slots[slot];
+      if (equal(_firstRows[group], row))
+        return group;
+
+      slot = (slot + 1) & (_slots.length - 1);
+    }
+
+    if (_groupCount == _limit)
+      return -1;
+
+    _slots[slot] = _groupCount;
+    newGroup(row);
+    if (_groupCount * 2 > _slots.length)
+      rehash();
+    return _groupCount - 1;
+  }
+
+  private void newGroup(int row) {
+    if (_groupCount == _firstRows.length) {
+      final int capacity = Math.max(16, _groupCount * 2);
+      _firstRows = Arrays.copyOf(_firstRows, capacity);
+      for (State state : _states)
+        state.resize(capacity);
+    }
+
+    _firstRows[_groupCount++] = row;
+  }
+
+  private void rehash() {
+    _slots = new int[_slots.length * 2];
+    Arrays.fill(_slots, -1);
+    final int mask = _slots.length - 1;
+    for (int group = 0; group < _groupCount; group++) {
+      int slot = hash(_firstRows[group]) & mask;
+      while (_slots[slot] >= 0)
+        slot = (slot + 1) & mask;
+      _slots[slot] = group;
+    }
+  }
+
+  /**
+   * Groups are numbered in order of appearance, orders them on their keys.
+   */
+  private void order() {
+    final long[][] keys = new long[_keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new long[_groupCount];
+      for (int group = 0; group < _groupCount; group++)
+        keys[i][group] = _keys[i][_firstRows[group]];
+    }
+
+    _order = new RowSorter(keys).sort(_groupCount);
+  }
+
+  private boolean equal(int row1, int row2) {
+    for (int i = 0; i < _keys.length; i++) {
+      if (_keys[i][row1] != _keys[i][row2])
+        return false;
+    }
+
+    return true;
+  }
+
+  private int hash(int row) {
+    long hash = 0L;
+    for (int i = 0; i < _keys.length; i++)
+      hash = hash * 31 + _keys[i][row];
+
+    // Finalizer of MurmurHash3 to spread the key over all bits
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return (int) hash;
+  }
+
+  /**
+   * Partial state of an aggregate for every group: the number of values, the
+   * sum of the values and the row holding the extreme value. Which of them
+   * are used depends on the {@link Function}.
+   */
+  static final class State {
+
+    final ColumnVector _vector;
+    final long[] _keys;
+
+    int[] _counts = new int[0];
+    double[] _sums = new double[0];
+    int[] _rows = new int[0];
+
+    State(ColumnVector vector, long[] keys) {
+      _vector = vector;
+      _keys = keys;
+    }
+
+    private void resize(int capacity) {
+      final int size = _rows.length;
+      _counts = Arrays.copyOf(_counts, capacity);
+      _sums = Arrays.copyOf(_sums, capacity);
+      _rows = Arrays.copyOf(_rows, capacity);
+      Arrays.fill(_rows, size, capacity, -1);
+    }
+  }
+
+  /**
+   * Aggregates both halves of the range in parallel and then merges the
+   * partial states, ranges below the chunk size are aggregated sequentially.
+   * Returns null if there are too many groups.
+   */
+  private static final class AggregateTask extends
+      RecursiveTask<GroupAggregator> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GroupAggregator _template;
+    private final int _fromIndex;
+    private final int _toIndex;
+    private final int _chunkSize;
+
+    AggregateTask(GroupAggregator template, int fromIndex, int toIndex,
+        int chunkSize) {
+      _template = template;
+      _fromIndex = fromIndex;
+      _toIndex = toIndex;
+      _chunkSize = chunkSize;
+    }
+
+    @Override
+    protected GroupAggregator compute() {
+      if (_toIndex - _fromIndex <= _chunkSize) {
+        final GroupAggregator aggregator = new GroupAggregator(_template);
+        return aggregator.add(_fromIndex, _toIndex) ? aggregator : null;
+      }
+
+      final int mid = (_fromIndex + _toIndex) >>> 1;
+      final AggregateTask right = new AggregateTask(_template, mid, _toIndex,
+          _chunkSize);
+      right.fork();
+      final GroupAggregator left = new AggregateTask(_template, _fromIndex,
+          mid, _chunkSize).compute();
+      final GroupAggregator other = right.join();
+      if (left == null || other == null || !left.merge(other))
+        return null;
+
+      return left;
+    }
+  }
+
+}
@@ -0,0 +1,173 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Base for the column types that can be encoded as an int, ordering of the
+ * encoded values must match the ordering of the values.
+ *
+ * @author karl
+ *
+ */
+abstract class IntVector extends ColumnVector {
+
+  private int[] _values = new int[0];
+
+  final int getInt(int index) {
+    return _values[index];
+  }
+
+  @Override
+  final long doHashKey(int index) {
+    return _values[index];
+  }
+
+  @Override
+  final Object getValue(int index) {
+    return decode(_values[index]);
+  }
+
+  @Override
+  final void setValue(int index, Object value) {
+    _values[index] = encode(value);
+  }
+
+  @Override
+  final void setValues(int index, Object values) {
+    if (!(values instanceof long[]))
+      throw new IllegalArgumentException();
+
+    final long[] millis = (long[]) values;
+    for (int i = 0; i < millis.length; i++)
+      _values[index + i] = encode(millis[i]);
+  }
+
+  @Override
+  final long[] doSortKeys() {
+    return sortKeys(this, IntBuffer.wrap(_values));
+  }
+
+  @Override
+  final void doSelectRange(Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    selectRange(this, IntBuffer.wrap(_values), this, from, to, fromIndex,
+        toIndex, selection);
+  }
+
+  @Override
+  final int doCompareValues(int index1, int index2,
+      Comparator<Object> comparator) {
+    return Integer.compare(_values[index1], _values[index2]);
+  }
+
+  @Override
+  final ColumnVector copyValues() {
+    final IntVector copy = (IntVector) type().createVector();
+    copy._values = _values.clone();
+    return copy;
+  }
+
+  @Override
+  final void resizeValues(int capacity) {
+    _values = Arrays.copyOf(_values, capacity);
+  }
+
+  @Override
+  final void moveValues(int srcIndex, int destIndex, int length) {
+    System.arraycopy(_values, srcIndex, _values, destIndex, length);
+  }
+
+  @Override
+  final void clearValues(int fromIndex, int toIndex) {
+    Arrays.fill(_values, fromIndex, toIndex, 0);
+  }
+
+  @Override
+  final void gatherValues(int[] order) {
+    final int[] values = new int[_values.length];
+    for (int i = 0; i < order.length; i++)
+      values[i] = _values[order[i]];
+    _values = values;
+  }
+
+  @Override
+  final void writeValues(WriteBuffer buffer, int size) {
+    buffer.putInts(_values, 0, size);
+  }
+
+  @Override
+  final void readValues(ReadBuffer buffer, int size) {
+    buffer.getInts(_values, 0, size);
+  }
+
+  /**
+   * Returns the sort keys of the encoded values of a vector whose gap is
+   * closed, see {@link ColumnVector#sortKeys()}.
+   */
+  static long[] sortKeys(ColumnVector vector, IntBuffer values) {
+    final long[] keys = new long[vector.size()];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = vector.isNull(i) ? NULL_KEY : values.get(i);
+    return keys;
+  }
+
+  /**
+   * Selects the rows of a vector whose gap is closed on the encoded values,
+   * the bounds are encoded by the codec, see
+   * {@link ColumnVector#selectRange(Object, Object, int, int, long[])}.
+   */
+  static void selectRange(ColumnVector vector, IntBuffer values,
+      IntVector codec, Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    // Encoded values never reach the long bounds, they serve as open bounds
+    final long min = from == null ? Long.MIN_VALUE : codec.encode(from);
+    final long max = to == null ? Long.MAX_VALUE : codec.encode(to);
+    for (int w = 0; w < selection.length; w++) {
+      final int index = fromIndex + (w << 6);
+      final int length = Math.min(64, toIndex - index);
+      if (length <= 0)
+        break;
+
+      long bits = 0L;
+      for (int b = 0; b < length; b++) {
+        final int value = values.get(index + b);
+        if (value >= min && value < max)
+          bits |= 1L << b;
+      }
+      selection[w] &= vector.rangeWord(bits, index, from != null);
+    }
+  }
+
+  abstract int encode(Object value);
+
+  /**
+   * Encodes the value given as milliseconds since the epoch.
+   */
+  abstract int encode(long millis);
+
+  abstract Object decode(int value);
+
+}
@@ -0,0 +1,93 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+
+/**
+ * Object array that is only allocated once a non null element is stored.
+ * Used for the rarely populated per cell and per row data such as formatted
+ * values and properties.
+ *
+ * @author karl
+ *
+ */
+final class LazyArray<T> {
+
+  private int _capacity = 0;
+  private Object[] _values;
+
+  @SuppressWarnings("unchecked")
+  T get(int index) {
+    if (_values == null)
+      return null;
+
+    return (T) _values[index];
+  }
+
+  void set(int index, T value) {
+    if (_values == null) {
+      if (value == null)
+        return;
+
+      _values = new Object[_capacity];
+    }
+
+    _values[index] = value;
+  }
+
+  boolean isEmpty() {
+    return _values == null;
+  }
+
+  void resize(int capacity) {
+    _capacity = capacity;
+    if (_values != null)
+      _values = Arrays.copyOf(_values, capacity);
+  }
+
+  void clear(int fromIndex, int toIndex) {
+    if (_values != null)
+      Arrays.fill(_values, fromIndex, toIndex, null);
+  }
+
+  void move(int srcIndex, int destIndex, int length) {
+    if (_values != null)
+      System.arraycopy(_values, srcIndex, _values, destIndex, length);
+  }
+
+  /**
+   * Copies the elements of the source, the elements themselves are shared.
+   */
+  void copy(LazyArray<T> source) {
+    _capacity = source._capacity;
+    _values = source._values == null ? null : source._values.clone();
+  }
+
+  void gather(int[] order) {
+    if (_values == null)
+      return;
+
+    final Object[] values = new Object[_capacity];
+    for (int i = 0; i < order.length; i++)
+      values[i] = _values[order[i]];
+    _values = values;
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.LongBuffer;
+import java.util.Comparator;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Read only {@link Type#BOOLEAN} values read from a mapped snapshot, packed
+ * into 64 bit words like {@link BitVector}.
+ *
+ * @author karl
+ *
+ */
+final class MappedBooleanVector extends ColumnVector {
+
+  private LongBuffer _values;
+
+  @Override
+  Type type() {
+    return Type.BOOLEAN;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof Boolean;
+  }
+
+  @Override
+  long doHashKey(int index) {
+    return getBoolean(index) ? 1L : 0L;
+  }
+
+  @Override
+  Object getValue(int index) {
+    return Boolean.valueOf(getBoolean(index));
+  }
+
+  @Override
+  void setValue(int index, Object value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  long[] doSortKeys() {
+    return BooleanVector.sortKeys(this, _values);
+  }
+
+  @Override
+  int doCompareValues(int index1, int index2, Comparator<Object> comparator) {
+    return Boolean.compare(getBoolean(index1), getBoolean(index2));
+  }
+
+  /**
+   * The copy reads the same mapped values.
+   */
+  @Override
+  ColumnVector copyValues() {
+    final MappedBooleanVector copy = new MappedBooleanVector();
+    copy._values = _values;
+    return copy;
+  }
+
+  @Override
+  void resizeValues(int capacity) {
+    checkUnmapped();
+  }
+
+  @Override
+  void moveValues(int srcIndex, int destIndex, int length) {
+    checkUnmapped();
+  }
+
+  @Override
+  void clearValues(int fromIndex, int toIndex) {
+    checkUnmapped();
+  }
+
+  @Override
+  void gatherValues(int[] order) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  void writeValues(WriteBuffer buffer, int size) {
+    for (int i = 0; i < (size + 63) >>> 6; i++)
+      buffer.putLong(_values.get(i));
+  }
+
+  @Override
+  void readValues(ReadBuffer buffer, int size) {
+    _values = buffer.getSlice(((size + 63) >>> 6) * 8).asLongBuffer();
+  }
+
+  private boolean getBoolean(int index) {
+    return BooleanVector.get(_values, index);
+  }
+
+  /**
+   * The rows are only sized while the vector is empty, before the values are
+   * mapped.
+   */
+  private void checkUnmapped() {
+    if (_values != null)
+      throw new UnsupportedOperationException();
+  }
+
+}
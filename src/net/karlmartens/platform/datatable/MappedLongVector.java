@@ -0,0 +1,137 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.LongBuffer;
+import java.util.Comparator;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Read only long encoded values read from a mapped snapshot. Values are
+ * encoded and decoded by the {@link LongVector} of the column type.
+ *
+ * @author karl
+ *
+ */
+final class MappedLongVector extends ColumnVector {
+
+  private final LongVector _codec;
+
+  private LongBuffer _values;
+
+  MappedLongVector(LongVector codec) {
+    _codec = codec;
+  }
+
+  @Override
+  Type type() {
+    return _codec.type();
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return _codec.supports(value);
+  }
+
+  @Override
+  long doHashKey(int index) {
+    return _values.get(index);
+  }
+
+  @Override
+  Object getValue(int index) {
+    return _codec.decode(_values.get(index));
+  }
+
+  @Override
+  void setValue(int index, Object value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  long[] doSortKeys() {
+    return LongVector.sortKeys(this, _values);
+  }
+
+  @Override
+  void doSelectRange(Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    LongVector.selectRange(this, _values, _codec, from, to, fromIndex,
+        toIndex, selection);
+  }
+
+  @Override
+  int doCompareValues(int index1, int index2, Comparator<Object> comparator) {
+    return Long.compare(_values.get(index1), _values.get(index2));
+  }
+
+  /**
+   * The copy reads the same mapped values.
+   */
+  @Override
+  ColumnVector copyValues() {
+    final MappedLongVector copy = new MappedLongVector(_codec);
+    copy._values = _values;
+    return copy;
+  }
+
+  @Override
+  void resizeValues(int capacity) {
+    checkUnmapped();
+  }
+
+  @Override
+  void moveValues(int srcIndex, int destIndex, int length) {
+    checkUnmapped();
+  }
+
+  @Override
+  void clearValues(int fromIndex, int toIndex) {
+    checkUnmapped();
+  }
+
+  @Override
+  void gatherValues(int[] order) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  void writeValues(WriteBuffer buffer, int size) {
+    for (int i = 0; i < size; i++)
+      buffer.putLong(_values.get(i));
+  }
+
+  @Override
+  void readValues(ReadBuffer buffer, int size) {
+    _values = buffer.getSlice(size * 8).asLongBuffer();
+  }
+
+  /**
+   * The rows are only sized while the vector is empty, before the values are
+   * mapped.
+   */
+  private void checkUnmapped() {
+    if (_values != null)
+      throw new UnsupportedOperationException();
+  }
+
+}
@@ -0,0 +1,145 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.IntBuffer;
+import java.util.Comparator;
+import java.util.Set;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Read only {@link Type#STRING} values read from a mapped snapshot. The
+ * {@link StringDictionary} is read onto the heap, the codes of the rows stay
+ * in the mapped file.
+ *
+ * @author karl
+ *
+ */
+final class MappedStringVector extends ColumnVector {
+
+  private StringDictionary _dictionary = new StringDictionary();
+  private IntBuffer _rows;
+
+  @Override
+  Type type() {
+    return Type.STRING;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof String;
+  }
+
+  @Override
+  Object getValue(int index) {
+    return _dictionary.get(_rows.get(index));
+  }
+
+  @Override
+  void setValue(int index, Object value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  long[] doSortKeys() {
+    return StringVector.sortKeys(this, _dictionary, _rows);
+  }
+
+  @Override
+  int doCompareValues(int index1, int index2, Comparator<Object> comparator) {
+    final long[] ranks = _dictionary.ranks();
+    return Long.compare(ranks[_rows.get(index1)], ranks[_rows.get(index2)]);
+  }
+
+  @Override
+  void doSelectRange(Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    StringVector.selectRange(this, _dictionary, _rows, from, to, fromIndex,
+        toIndex, selection);
+  }
+
+  @Override
+  void doSelectValues(Set<Object> values, int fromIndex, int toIndex,
+      long[] selection) {
+    StringVector.selectValues(this, _dictionary, _rows, values, fromIndex,
+        toIndex, selection);
+  }
+
+  /**
+   * The copy reads the same mapped rows, the dictionary is never added to.
+   */
+  @Override
+  ColumnVector copyValues() {
+    final MappedStringVector copy = new MappedStringVector();
+    copy._dictionary = _dictionary;
+    copy._rows = _rows;
+    return copy;
+  }
+
+  @Override
+  void prepareValues() {
+    _dictionary.ranks();
+  }
+
+  @Override
+  void resizeValues(int capacity) {
+    checkUnmapped();
+  }
+
+  @Override
+  void moveValues(int srcIndex, int destIndex, int length) {
+    checkUnmapped();
+  }
+
+  @Override
+  void clearValues(int fromIndex, int toIndex) {
+    checkUnmapped();
+  }
+
+  @Override
+  void gatherValues(int[] order) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  void writeValues(WriteBuffer buffer, int size) {
+    _dictionary.write(buffer);
+    for (int i = 0; i < size; i++)
+      buffer.putInt(_rows.get(i));
+  }
+
+  @Override
+  void readValues(ReadBuffer buffer, int size) {
+    _dictionary = StringDictionary.read(buffer);
+    _rows = buffer.getSlice(size * 4).asIntBuffer();
+  }
+
+  /**
+   * The rows are only sized while the vector is empty, before the values are
+   * mapped.
+   */
+  private void checkUnmapped() {
+    if (_rows != null)
+      throw new UnsupportedOperationException();
+  }
+
+}
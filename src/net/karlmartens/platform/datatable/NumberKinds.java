@@ -0,0 +1,186 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Remembers the boxed kind of the {@link Type#NUMBER} values stored as
+ * doubles, so that a value is returned as the number it was set as. Integers,
+ * longs and doubles, by far the most common, are told apart by two bits per
+ * row.
+ * <p>
+ * Every other number is kept boxed, sparsely next to the doubles: shorts,
+ * bytes and floats, longs beyond 2^53 that lose precision as doubles and any
+ * other Number class. The binary snapshot keeps the shorts, bytes, floats and
+ * longs, other classes are read back as doubles.
+ *
+ * @author karl
+ *
+ */
+final class NumberKinds {
+
+  private static final long MAX_EXACT = 1L << 53;
+
+  private static final byte LONG = 0;
+  private static final byte SHORT = 1;
+  private static final byte BYTE = 2;
+  private static final byte FLOAT = 3;
+  private static final byte DOUBLE = 4;
+
+  private final BitVector _integral = new BitVector();
+  private final BitVector _long = new BitVector();
+  private final LazyArray<Number> _boxed = new LazyArray<Number>();
+
+  /**
+   * Returns the value stored at the index boxed as its kind.
+   */
+  Object get(int index, double value) {
+    final Number boxed = _boxed.get(index);
+    if (boxed != null)
+      return boxed;
+
+    if (!_integral.get(index))
+      return Double.valueOf(value);
+
+    if (!_long.get(index))
+      return Integer.valueOf((int) value);
+
+    return Long.valueOf((long) value);
+  }
+
+  void set(int index, Number number) {
+    final boolean isLong = number instanceof Long;
+    final boolean isInteger = number instanceof Integer;
+    _integral.set(index, isLong || isInteger);
+    _long.set(index, isLong);
+    final boolean plain = isInteger || number instanceof Double
+        || (isLong && isExact(number.longValue()));
+    _boxed.set(index, plain ? null : number);
+  }
+
+  /**
+   * Sets the kind of an integral value given without a boxed kind, it is an
+   * Integer if it fits.
+   */
+  void set(int index, long value) {
+    _integral.set(index, true);
+    _long.set(index, value < Integer.MIN_VALUE || value > Integer.MAX_VALUE);
+    _boxed.set(index, isExact(value) ? null : Long.valueOf(value));
+  }
+
+  void resize(int capacity) {
+    _integral.resize(capacity);
+    _long.resize(capacity);
+    _boxed.resize(capacity);
+  }
+
+  void move(int srcIndex, int destIndex, int length) {
+    _integral.move(srcIndex, destIndex, length);
+    _long.move(srcIndex, destIndex, length);
+    _boxed.move(srcIndex, destIndex, length);
+  }
+
+  void clear(int fromIndex, int toIndex) {
+    _integral.clear(fromIndex, toIndex);
+    _long.clear(fromIndex, toIndex);
+    _boxed.clear(fromIndex, toIndex);
+  }
+
+  void gather(int[] order) {
+    _integral.gather(order);
+    _long.gather(order);
+    _boxed.gather(order);
+  }
+
+  void copy(NumberKinds source) {
+    _integral.copy(source._integral);
+    _long.copy(source._long);
+    _boxed.copy(source._boxed);
+  }
+
+  /**
+   * Writes the kinds of the first size values followed by the boxed values,
+   * as a list of row indices terminated by -1.
+   */
+  void write(WriteBuffer buffer, int size) {
+    _integral.write(buffer, size);
+    _long.write(buffer, size);
+    if (!_boxed.isEmpty()) {
+      for (int i = 0; i < size; i++) {
+        final Number boxed = _boxed.get(i);
+        if (boxed != null) {
+          buffer.putInt(i);
+          writeBoxed(buffer, boxed);
+        }
+      }
+    }
+    buffer.putInt(-1);
+  }
+
+  void read(ReadBuffer buffer, int size) {
+    _integral.read(buffer, size);
+    _long.read(buffer, size);
+    for (int i = buffer.getInt(); i >= 0; i = buffer.getInt())
+      _boxed.set(i, readBoxed(buffer));
+  }
+
+  private static void writeBoxed(WriteBuffer buffer, Number boxed) {
+    if (boxed instanceof Long) {
+      buffer.putByte(LONG);
+      buffer.putLong(boxed.longValue());
+    } else if (boxed instanceof Short) {
+      buffer.putByte(SHORT);
+      buffer.putShort(boxed.shortValue());
+    } else if (boxed instanceof Byte) {
+      buffer.putByte(BYTE);
+      buffer.putByte(boxed.byteValue());
+    } else if (boxed instanceof Float) {
+      buffer.putByte(FLOAT);
+      buffer.putFloat(boxed.floatValue());
+    } else {
+      buffer.putByte(DOUBLE);
+      buffer.putDouble(boxed.doubleValue());
+    }
+  }
+
+  private static Number readBoxed(ReadBuffer buffer) {
+    final byte kind = buffer.getByte();
+    if (kind == LONG)
+      return Long.valueOf(buffer.getLong());
+
+    if (kind == SHORT)
+      return Short.valueOf(buffer.getShort());
+
+    if (kind == BYTE)
+      return Byte.valueOf(buffer.getByte());
+
+    if (kind == FLOAT)
+      return Float.valueOf(buffer.getFloat());
+
+    return Double.valueOf(buffer.getDouble());
+  }
+
+  private static boolean isExact(long value) {
+    return value >= -MAX_EXACT && value <= MAX_EXACT;
+  }
+
+}
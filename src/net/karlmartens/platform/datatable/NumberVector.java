@@ -0,0 +1,206 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Stores {@link Type#NUMBER} values as doubles. The boxed kind of every value
+ * is remembered by {@link NumberKinds} so that it is returned, and rendered to
+ * json, as it was given.
+ *
+ * @author karl
+ *
+ */
+final class NumberVector extends ColumnVector {
+
+  private final NumberKinds _kinds = new NumberKinds();
+
+  private double[] _values = new double[0];
+
+  @Override
+  Type type() {
+    return Type.NUMBER;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof Number;
+  }
+
+  @Override
+  double doGetDouble(int index) {
+    return _values[index];
+  }
+
+  @Override
+  long doHashKey(int index) {
+    return Double.doubleToLongBits(_values[index]);
+  }
+
+  @Override
+  Object getValue(int index) {
+    return _kinds.get(index, _values[index]);
+  }
+
+  @Override
+  void setValue(int index, Object value) {
+    if (!supports(value))
+      throw new IllegalArgumentException();
+
+    final Number number = (Number) value;
+    _values[index] = number.doubleValue();
+    _kinds.set(index, number);
+  }
+
+  @Override
+  void setValues(int index, Object values) {
+    if (values instanceof double[]) {
+      final double[] doubles = (double[]) values;
+      System.arraycopy(doubles, 0, _values, index, doubles.length);
+      _kinds.clear(index, index + doubles.length);
+    } else if (values instanceof long[]) {
+      final long[] longs = (long[]) values;
+      for (int i = 0; i < longs.length; i++) {
+        _values[index + i] = longs[i];
+        _kinds.set(index + i, longs[i]);
+      }
+    } else {
+      throw new IllegalArgumentException();
+    }
+  }
+
+  @Override
+  long[] doSortKeys() {
+    return sortKeys(this, DoubleBuffer.wrap(_values));
+  }
+
+  @Override
+  void doSelectRange(Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    selectRange(this, DoubleBuffer.wrap(_values), from, to, fromIndex,
+        toIndex, selection);
+  }
+
+  @Override
+  int doCompareValues(int index1, int index2, Comparator<Object> comparator) {
+    return Double.compare(_values[index1], _values[index2]);
+  }
+
+  @Override
+  ColumnVector copyValues() {
+    final NumberVector copy = new NumberVector();
+    copy._values = _values.clone();
+    copy._kinds.copy(_kinds);
+    return copy;
+  }
+
+  @Override
+  void resizeValues(int capacity) {
+    _values = Arrays.copyOf(_values, capacity);
+    _kinds.resize(capacity);
+  }
+
+  @Override
+  void moveValues(int srcIndex, int destIndex, int length) {
+    System.arraycopy(_values, srcIndex, _values, destIndex, length);
+    _kinds.move(srcIndex, destIndex, length);
+  }
+
+  @Override
+  void clearValues(int fromIndex, int toIndex) {
+    Arrays.fill(_values, fromIndex, toIndex, 0.0);
+    _kinds.clear(fromIndex, toIndex);
+  }
+
+  @Override
+  void gatherValues(int[] order) {
+    final double[] values = new double[_values.length];
+    for (int i = 0; i < order.length; i++)
+      values[i] = _values[order[i]];
+    _values = values;
+    _kinds.gather(order);
+  }
+
+  @Override
+  void writeValues(WriteBuffer buffer, int size) {
+    buffer.putDoubles(_values, 0, size);
+    _kinds.write(buffer, size);
+  }
+
+  @Override
+  void readValues(ReadBuffer buffer, int size) {
+    buffer.getDoubles(_values, 0, size);
+    _kinds.read(buffer, size);
+  }
+
+  /**
+   * Returns the sort keys of the values of a number vector whose gap is
+   * closed, see {@link ColumnVector#sortKeys()}.
+   */
+  static long[] sortKeys(ColumnVector vector, DoubleBuffer values) {
+    final long[] keys = new long[vector.size()];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = vector.isNull(i) ? NULL_KEY : key(values.get(i));
+    return keys;
+  }
+
+  /**
+   * Selects the rows of a number vector whose gap is closed, see
+   * {@link ColumnVector#selectRange(Object, Object, int, int, long[])}.
+   */
+  static void selectRange(ColumnVector vector, DoubleBuffer values,
+      Object from, Object to, int fromIndex, int toIndex, long[] selection) {
+    // No double has a key of Long.MAX_VALUE, it can serve as the open bound
+    final long min = from == null ? Long.MIN_VALUE : key(((Number) from)
+        .doubleValue());
+    final long max = to == null ? Long.MAX_VALUE : key(((Number) to)
+        .doubleValue());
+    for (int w = 0; w < selection.length; w++) {
+      final int index = fromIndex + (w << 6);
+      final int length = Math.min(64, toIndex - index);
+      if (length <= 0)
+        break;
+
+      long bits = 0L;
+      for (int b = 0; b < length; b++) {
+        final long key = key(values.get(index + b));
+        if (key >= min && key < max)
+          bits |= 1L << b;
+      }
+      selection[w] &= vector.rangeWord(bits, index, from != null);
+    }
+  }
+
+  /**
+   * Flips the magnitude of negative values so the bits order like
+   * Double.compare.
+   */
+  static long key(double value) {
+    final long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+}
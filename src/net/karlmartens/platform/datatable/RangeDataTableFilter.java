@@ -56,4 +56,57 @@ public class RangeDataTableFilter implements DataTableFilter {
     return true;
   }
 
+  Type type() {
+    return _type;
+  }
+
+  int columnIndex() {
+    return _columnIndex;
+  }
+
+  Object from() {
+    return _from;
+  }
+
+  Object to() {
+    return _to;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((_type == null) ? 0 : _type.hashCode());
+    result = prime * result + _columnIndex;
+    result = prime * result + ((_from == null) ? 0 : _from.hashCode());
+    result = prime * result + ((_to == null) ? 0 : _to.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    RangeDataTableFilter other = (RangeDataTableFilter) obj;
+    if (_type != other._type)
+      return false;
+    if (_columnIndex != other._columnIndex)
+      return false;
+    if (_from == null) {
+      if (other._from != null)
+        return false;
+    } else if (!_from.equals(other._from))
+      return false;
+    if (_to == null) {
+      if (other._to != null)
+        return false;
+    } else if (!_to.equals(other._to))
+      return false;
+    return true;
+  }
+
 }
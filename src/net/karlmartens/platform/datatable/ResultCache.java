@@ -0,0 +1,137 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the rows computed by a {@link DataTable}, such
+ * as sort permutations and filtered rows, keyed by the specification they were
+ * computed from. Entries hold for one modification count of the table, the
+ * first access after the table changed discards them all.
+ * <p>
+ * Rows are copied in and out of the cache so that callers are free to modify
+ * the arrays they are given. The cache is synchronized since the threads
+ * reading a snapshot of a table share its cache.
+ *
+ * @author karl
+ *
+ */
+final class ResultCache {
+
+  static final int DEFAULT_SIZE = 16;
+
+  private final Map<List<Object>, int[]> _entries;
+
+  private int _size = DEFAULT_SIZE;
+  private int _modCount = 0;
+  private long _hitCount = 0L;
+  private long _missCount = 0L;
+
+  ResultCache() {
+    _entries = new LinkedHashMap<List<Object>, int[]>(DEFAULT_SIZE, 0.75f,
+        true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<List<Object>, int[]> eldest) {
+        return size() > _size;
+      }
+    };
+  }
+
+  /**
+   * Returns the key of the specification of the given kind.
+   */
+  static List<Object> key(Object kind, Object... specs) {
+    final Object[] key = new Object[specs.length + 1];
+    key[0] = kind;
+    System.arraycopy(specs, 0, key, 1, specs.length);
+    return Arrays.asList(key);
+  }
+
+  /**
+   * Returns a copy of the cached rows, or null if there are none. Counts as
+   * a hit or a miss.
+   */
+  synchronized int[] get(List<Object> key, int modCount) {
+    final int[] rows = peek(key, modCount);
+    if (rows == null) {
+      _missCount++;
+    } else {
+      _hitCount++;
+    }
+    return rows;
+  }
+
+  /**
+   * Returns a copy of the cached rows, or null if there are none, without
+   * counting a hit or a miss.
+   */
+  synchronized int[] peek(List<Object> key, int modCount) {
+    validate(modCount);
+    final int[] rows = _entries.get(key);
+    return rows == null ? null : rows.clone();
+  }
+
+  synchronized void put(List<Object> key, int[] rows, int modCount) {
+    validate(modCount);
+    if (_size > 0)
+      _entries.put(key, rows.clone());
+  }
+
+  synchronized long hitCount() {
+    return _hitCount;
+  }
+
+  synchronized long missCount() {
+    return _missCount;
+  }
+
+  /**
+   * Bounds the number of entries, the least recently used entries beyond the
+   * size are evicted. A size of 0 disables the cache.
+   */
+  synchronized void size(int size) {
+    if (size < 0)
+      throw new IllegalArgumentException();
+
+    _size = size;
+    final Iterator<int[]> it = _entries.values().iterator();
+    while (_entries.size() > size) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  private void validate(int modCount) {
+    if (modCount == _modCount)
+      return;
+
+    _entries.clear();
+    _modCount = modCount;
+  }
+
+}
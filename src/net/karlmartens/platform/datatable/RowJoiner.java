@@ -0,0 +1,361 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+
+/**
+ * Pairs the rows of two tables whose key columns hold equal values, null keys
+ * never match. The keys of both sides are extracted into long arrays in the
+ * same key space, see {@link ColumnVector#sortKeys()}, string keys are ranked
+ * over the values of both sides since the ranks of a dictionary are local to
+ * its vector.
+ * <p>
+ * When both sides are already ordered on their keys they are merged, else a
+ * hash table over the primitive keys of the smaller side is probed with the
+ * rows of the other side. Either way the pairs are ordered on the left row
+ * and then on the right row.
+ *
+ * @author karl
+ *
+ */
+final class RowJoiner {
+
+  private final long[][] _leftKeys;
+  private final long[][] _rightKeys;
+  private final int _leftCount;
+  private final int _rightCount;
+
+  private int[] _leftRows = new int[16];
+  private int[] _rightRows = new int[16];
+  private int _size = 0;
+
+  RowJoiner(ColumnVector[] left, int[] leftColumns, int leftCount,
+      ColumnVector[] right, int[] rightColumns, int rightCount) {
+    if (leftColumns.length != rightColumns.length)
+      throw new IllegalArgumentException();
+
+    _leftKeys = new long[leftColumns.length][];
+    _rightKeys = new long[rightColumns.length][];
+    for (int i = 0; i < leftColumns.length; i++)
+      keys(left[leftColumns[i]], right[rightColumns[i]], i);
+    _leftCount = leftCount;
+    _rightCount = rightCount;
+  }
+
+  /**
+   * Pairs the rows, an outer join pairs the left rows without a match with
+   * -1.
+   */
+  void join(boolean outer) {
+    if (isSorted(_leftKeys, _leftCount) && isSorted(_rightKeys, _rightCount)) {
+      merge(outer);
+    } else if (_rightCount <= _leftCount) {
+      hash(outer);
+    } else {
+      hashLeft(outer);
+    }
+  }
+
+  int size() {
+    return _size;
+  }
+
+  int[] leftRows() {
+    return _leftRows;
+  }
+
+  /**
+   * Returns the right row of every pair, -1 for a left row without a match.
+   */
+  int[] rightRows() {
+    return _rightRows;
+  }
+
+  private void merge(boolean outer) {
+    int left = 0;
+    int right = 0;
+    while (left < _leftCount) {
+      while (right < _rightCount
+          && (isNull(_rightKeys, right) || compare(left, right) > 0))
+        right++;
+
+      int end = right;
+      while (end < _rightCount && !isNull(_leftKeys, left)
+          && compare(left, end) == 0)
+        end++;
+
+      if (end == right && outer)
+        add(left, -1);
+
+      // Left rows with the same keys match the same run of right rows
+      final int run = left;
+      do {
+        for (int r = right; r < end; r++)
+          add(left, r);
+        left++;
+      } while (end > right && left < _leftCount && equal(_leftKeys, run,
+          _leftKeys, left));
+    }
+  }
+
+  /**
+   * Builds the hash table on the right rows and probes it with the left
+   * rows.
+   */
+  private void hash(boolean outer) {
+    final HashTable table = new HashTable(_rightKeys, _rightCount);
+    for (int left = 0; left < _leftCount; left++) {
+      int matches = 0;
+      if (!isNull(_leftKeys, left)) {
+        for (int r = table.first(_leftKeys, left); r >= 0; r = table.next(r)) {
+          add(left, r);
+          matches++;
+        }
+      }
+
+      if (matches == 0 && outer)
+        add(left, -1);
+    }
+  }
+
+  /**
+   * Builds the hash table on the left rows and probes it with the right
+   * rows, the pairs are then ordered on the left row.
+   */
+  private void hashLeft(boolean outer) {
+    final HashTable table = new HashTable(_leftKeys, _leftCount);
+    final int[] counts = new int[_leftCount + 1];
+    for (int right = 0; right < _rightCount; right++) {
+      if (isNull(_rightKeys, right))
+        continue;
+
+      for (int l = table.first(_rightKeys, right); l >= 0; l = table.next(l)) {
+        add(l, right);
+        counts[l + 1]++;
+      }
+    }
+
+    if (outer) {
+      for (int left = 0; left < _leftCount; left++) {
+        if (counts[left + 1] == 0) {
+          add(left, -1);
+          counts[left + 1]++;
+        }
+      }
+    }
+
+    for (int left = 0; left < _leftCount; left++)
+      counts[left + 1] += counts[left];
+
+    // Counting sort on the left row keeps the right rows ascending
+    final int[] leftRows = new int[_size];
+    final int[] rightRows = new int[_size];
+    for (int i = 0; i < _size; i++) {
+      final int position = counts[_leftRows[i]]++;
+      leftRows[position] = _leftRows[i];
+      rightRows[position] = _rightRows[i];
+    }
+    _leftRows = leftRows;
+    _rightRows = rightRows;
+  }
+
+  private void add(int left, int right) {
+    if (_size == _leftRows.length) {
+      _leftRows = Arrays.copyOf(_leftRows, _size * 2);
+      _rightRows = Arrays.copyOf(_rightRows, _size * 2);
+    }
+
+    _leftRows[_size] = left;
+    _rightRows[_size] = right;
+    _size++;
+  }
+
+  private int compare(int left, int right) {
+    for (int i = 0; i < _leftKeys.length; i++) {
+      final int c = Long.compare(_leftKeys[i][left], _rightKeys[i][right]);
+      if (c != 0)
+        return c;
+    }
+
+    return 0;
+  }
+
+  private void keys(ColumnVector left, ColumnVector right, int index) {
+    if (left.type() != right.type())
+      throw new IllegalArgumentException();
+
+    if (left.type() != Type.STRING) {
+      _leftKeys[index] = left.sortKeys();
+      _rightKeys[index] = right.sortKeys();
+      return;
+    }
+
+    final Set<Object> values = new HashSet<Object>();
+    addValues(left, values);
+    addValues(right, values);
+
+    final Object[] sorted = values.toArray();
+    final Comparator<Object> comparator = Type.STRING.comparator();
+    Arrays.sort(sorted, comparator);
+
+    final Map<Object, Long> ranks = new HashMap<Object, Long>();
+    long rank = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i > 0 && comparator.compare(sorted[i - 1], sorted[i]) != 0)
+        rank++;
+      ranks.put(sorted[i], Long.valueOf(rank));
+    }
+
+    _leftKeys[index] = rankKeys(left, ranks);
+    _rightKeys[index] = rankKeys(right, ranks);
+  }
+
+  private static void addValues(ColumnVector vector, Set<Object> values) {
+    for (int i = 0; i < vector.size(); i++) {
+      if (!vector.isNull(i))
+        values.add(vector.get(i));
+    }
+  }
+
+  private static long[] rankKeys(ColumnVector vector, Map<Object, Long> ranks) {
+    final long[] keys = new long[vector.size()];
+    for (int i = 0; i < keys.length; i++) {
+      if (vector.isNull(i)) {
+        keys[i] = ColumnVector.NULL_KEY;
+      } else {
+        keys[i] = ranks.get(vector.get(i)).longValue();
+      }
+    }
+    return keys;
+  }
+
+  private static boolean isSorted(long[][] keys, int rowCount) {
+    for (int row = 1; row < rowCount; row++) {
+      for (int i = 0; i < keys.length; i++) {
+        final int c = Long.compare(keys[i][row - 1], keys[i][row]);
+        if (c > 0)
+          return false;
+
+        if (c < 0)
+          break;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isNull(long[][] keys, int row) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i][row] == ColumnVector.NULL_KEY)
+        return true;
+    }
+
+    return false;
+  }
+
+  private static boolean equal(long[][] keys1, int row1, long[][] keys2,
+      int row2) {
+    for (int i = 0; i < keys1.length; i++) {
+      if (keys1[i][row1] != keys2[i][row2])
+        return false;
+    }
+
+    return true;
+  }
+
+  private static int hash(long[][] keys, int row) {
+    long hash = 0L;
+    for (int i = 0; i < keys.length; i++)
+      hash = hash * 31 + keys[i][row];
+
+    // Finalizer of MurmurHash3 to spread the key over all bits
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return (int) hash;
+  }
+
+  /**
+   * Open addressing hash table from the keys of the build side to the chain
+   * of its rows holding them, chained in ascending order. Rows with a null
+   * key are left out.
+   */
+  private static final class HashTable {
+
+    private final long[][] _keys;
+    private final int[] _slots;
+    private final int[] _next;
+
+    HashTable(long[][] keys, int rowCount) {
+      _keys = keys;
+      _slots = new int[Integer.highestOneBit(Math.max(rowCount, 8)) << 2];
+      Arrays.fill(_slots, -1);
+      _next = new int[rowCount];
+
+      final int[] last = new int[rowCount];
+      final int mask = _slots.length - 1;
+      for (int row = 0; row < rowCount; row++) {
+        _next[row] = -1;
+        if (isNull(keys, row))
+          continue;
+
+        int slot = hash(keys, row) & mask;
+        while (_slots[slot] >= 0 && !equal(keys, _slots[slot], keys, row))
+          slot = (slot + 1) & mask;
+
+        if (_slots[slot] < 0) {
+          _slots[slot] = row;
+        } else {
+          _next[last[_slots[slot]]] = row;
+        }
+        last[_slots[slot]] = row;
+      }
+    }
+
+    /**
+     * Returns the first row holding the keys of the probe row, or -1.
+     */
+    int first(long[][] keys, int row) {
+      final int mask = _slots.length - 1;
+      int slot = hash(keys, row) & mask;
+      while (_slots[slot] >= 0) {
+        if (equal(_keys, _slots[slot], keys, row))
+          return _slots[slot];
+
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    int next(int row) {
+      return _next[row];
+    }
+  }
+
+}
@@ -0,0 +1,427 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts row indices on the keys of one or more columns. The sort keys of every
+ * column are extracted into a long array up front (see
+ * {@link ColumnVector#sortKeys()}) so comparing two rows never boxes a value or
+ * calls a {@link java.util.Comparator}. Descending columns have their keys
+ * inverted, rows with equal keys keep their original order. Because ties are
+ * broken on the row index the order is a total order, the parallel sort
+ * therefore produces exactly the same permutation as the sequential one.
+ * 
+ * @author karl
+ * 
+ */
+final class RowSorter {
+
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+  private static final int PARALLEL_THRESHOLD = 1 << 13;
+  private static final int HEAP_FRACTION = 8;
+
+  private final long[][] _keys;
+
+  RowSorter(ColumnVector[] vectors, DataTableSort[] sort) {
+    this(vectors, sort, null);
+  }
+
+  /**
+   * Sorts the given rows of the vectors, the sorted indices are positions in
+   * the rows array. A null array sorts all rows.
+   */
+  RowSorter(ColumnVector[] vectors, DataTableSort[] sort, int[] rows) {
+    this(keys(vectors, sort, rows));
+  }
+
+  /**
+   * Sorts rows on keys that were already extracted, one array per column.
+   */
+  RowSorter(long[][] keys) {
+    _keys = keys;
+  }
+
+  private static long[][] keys(ColumnVector[] vectors, DataTableSort[] sort,
+      int[] rows) {
+    if (sort == null)
+      throw new NullPointerException();
+
+    if (sort.length <= 0)
+      throw new IllegalArgumentException();
+
+    final long[][] sortKeys = new long[sort.length][];
+    for (int i = 0; i < sort.length; i++) {
+      long[] keys = vectors[sort[i].columnIndex()].sortKeys();
+      if (rows != null) {
+        final long[] gathered = new long[rows.length];
+        for (int row = 0; row < rows.length; row++)
+          gathered[row] = keys[rows[row]];
+        keys = gathered;
+      }
+
+      if (sort[i].decending()) {
+        for (int row = 0; row < keys.length; row++)
+          keys[row] = ~keys[row];
+      }
+      sortKeys[i] = keys;
+    }
+    return sortKeys;
+  }
+
+  int compare(int row1, int row2) {
+    for (int i = 0; i < _keys.length; i++) {
+      final long[] keys = _keys[i];
+      final int c = Long.compare(keys[row1], keys[row2]);
+      if (c != 0)
+        return c;
+    }
+
+    return Integer.compare(row1, row2);
+  }
+
+  int[] sort(int rowCount) {
+    final int[] rows = new int[rowCount];
+    for (int i = 0; i < rowCount; i++)
+      rows[i] = i;
+
+    sort(rows, 0, rowCount, new int[rowCount]);
+    return rows;
+  }
+
+  /**
+   * Returns the rows found at positions fromIndex to toIndex of the sorted
+   * order without sorting all rows. Leading pages keep the best rows in a
+   * bounded heap, deeper pages partition the rows around both bounds with
+   * quickselect, only the rows of the page are sorted.
+   */
+  int[] sort(int rowCount, int fromIndex, int toIndex) {
+    if (fromIndex >= toIndex)
+      return new int[0];
+
+    if (toIndex <= rowCount / HEAP_FRACTION) {
+      final int[] rows = top(rowCount, toIndex);
+      return Arrays.copyOfRange(rows, fromIndex, toIndex);
+    }
+
+    final int[] rows = new int[rowCount];
+    for (int i = 0; i < rowCount; i++)
+      rows[i] = i;
+
+    select(rows, 0, rowCount, fromIndex);
+    select(rows, fromIndex, rowCount, toIndex - 1);
+    sort(rows, fromIndex, toIndex, new int[rowCount]);
+    return Arrays.copyOfRange(rows, fromIndex, toIndex);
+  }
+
+  int[] parallelSort(int rowCount) {
+    final int[] rows = new int[rowCount];
+    for (int i = 0; i < rowCount; i++)
+      rows[i] = i;
+
+    ForkJoinPool.commonPool().invoke(
+        new SortTask(rows, new int[rowCount], 0, rowCount));
+    return rows;
+  }
+
+  void sort(int[] rows, int fromIndex, int toIndex, int[] buffer) {
+    if (toIndex - fromIndex <= INSERTION_SORT_THRESHOLD) {
+      insertionSort(rows, fromIndex, toIndex);
+      return;
+    }
+
+    final int mid = (fromIndex + toIndex) >>> 1;
+    sort(rows, fromIndex, mid, buffer);
+    sort(rows, mid, toIndex, buffer);
+    merge(rows, fromIndex, mid, toIndex, buffer);
+  }
+
+  void merge(int[] rows, int fromIndex, int mid, int toIndex, int[] buffer) {
+    if (compare(rows[mid - 1], rows[mid]) <= 0)
+      return;
+
+    System.arraycopy(rows, fromIndex, buffer, fromIndex, mid - fromIndex);
+
+    int left = fromIndex;
+    int right = mid;
+    int index = fromIndex;
+    while (left < mid && right < toIndex) {
+      if (compare(rows[right], buffer[left]) < 0) {
+        rows[index++] = rows[right++];
+      } else {
+        rows[index++] = buffer[left++];
+      }
+    }
+
+    while (left < mid)
+      rows[index++] = buffer[left++];
+  }
+
+  private void merge(int[] src, int fromIndex1, int toIndex1, int fromIndex2,
+      int toIndex2, int[] dest, int destIndex) {
+    int index1 = fromIndex1;
+    int index2 = fromIndex2;
+    int index = destIndex;
+    while (index1 < toIndex1 && index2 < toIndex2) {
+      if (compare(src[index2], src[index1]) < 0) {
+        dest[index++] = src[index2++];
+      } else {
+        dest[index++] = src[index1++];
+      }
+    }
+
+    System.arraycopy(src, index1, dest, index, toIndex1 - index1);
+    index += toIndex1 - index1;
+    System.arraycopy(src, index2, dest, index, toIndex2 - index2);
+  }
+
+  private int lowerBound(int[] rows, int fromIndex, int toIndex, int row) {
+    int low = fromIndex;
+    int high = toIndex;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (compare(rows[mid], row) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the first count rows of the sorted order. A max heap holds the
+   * best rows seen so far, a row only enters it if it precedes the worst.
+   */
+  private int[] top(int rowCount, int count) {
+    final int[] heap = new int[count];
+    for (int row = 0; row < rowCount; row++) {
+      if (row < count) {
+        heap[row] = row;
+        siftUp(heap, row);
+      } else if (compare(row, heap[0]) < 0) {
+        heap[0] = row;
+        siftDown(heap, count);
+      }
+    }
+
+    sort(heap, 0, count, new int[count]);
+    return heap;
+  }
+
+  private void siftUp(int[] heap, int index) {
+    final int row = heap[index];
+    int i = index;
+    while (i > 0) {
+      final int parent = (i - 1) >>> 1;
+      if (compare(heap[parent], row) >= 0)
+        break;
+
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = row;
+  }
+
+  private void siftDown(int[] heap, int size) {
+    final int row = heap[0];
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size)
+        break;
+
+      if (child + 1 < size && compare(heap[child + 1], heap[child]) > 0)
+        child++;
+
+      if (compare(heap[child], row) <= 0)
+        break;
+
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = row;
+  }
+
+  /**
+   * Partially orders the range so that the row at position index is the one
+   * the sort would put there, with the rows before it preceding it and the
+   * rows after it following it.
+   */
+  private void select(int[] rows, int fromIndex, int toIndex, int index) {
+    int low = fromIndex;
+    int high = toIndex - 1;
+    while (low < high) {
+      if (high - low < INSERTION_SORT_THRESHOLD) {
+        insertionSort(rows, low, high + 1);
+        return;
+      }
+
+      final int pivot = median(rows[low], rows[(low + high) >>> 1],
+          rows[high]);
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (compare(rows[i], pivot) < 0)
+          i++;
+        while (compare(rows[j], pivot) > 0)
+          j--;
+
+        if (i <= j) {
+          final int row = rows[i];
+          rows[i++] = rows[j];
+          rows[j--] = row;
+        }
+      }
+
+      if (index <= j) {
+        high = j;
+      } else if (index >= i) {
+        low = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private int median(int row1, int row2, int row3) {
+    if (compare(row1, row2) < 0) {
+      if (compare(row2, row3) < 0)
+        return row2;
+      return compare(row1, row3) < 0 ? row3 : row1;
+    }
+
+    if (compare(row1, row3) < 0)
+      return row1;
+    return compare(row2, row3) < 0 ? row3 : row2;
+  }
+
+  private void insertionSort(int[] rows, int fromIndex, int toIndex) {
+    for (int i = fromIndex + 1; i < toIndex; i++) {
+      final int row = rows[i];
+      int j = i - 1;
+      while (j >= fromIndex && compare(rows[j], row) > 0) {
+        rows[j + 1] = rows[j];
+        j--;
+      }
+      rows[j + 1] = row;
+    }
+  }
+
+  /**
+   * Sorts both halves of the range in parallel and then merges them, ranges
+   * below the threshold are sorted sequentially.
+   */
+  private final class SortTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] _rows;
+    private final int[] _buffer;
+    private final int _fromIndex;
+    private final int _toIndex;
+
+    SortTask(int[] rows, int[] buffer, int fromIndex, int toIndex) {
+      _rows = rows;
+      _buffer = buffer;
+      _fromIndex = fromIndex;
+      _toIndex = toIndex;
+    }
+
+    @Override
+    protected void compute() {
+      if (_toIndex - _fromIndex <= PARALLEL_THRESHOLD) {
+        sort(_rows, _fromIndex, _toIndex, _buffer);
+        return;
+      }
+
+      final int mid = (_fromIndex + _toIndex) >>> 1;
+      invokeAll(new SortTask(_rows, _buffer, _fromIndex, mid), new SortTask(
+          _rows, _buffer, mid, _toIndex));
+
+      if (compare(_rows[mid - 1], _rows[mid]) <= 0)
+        return;
+
+      System.arraycopy(_rows, _fromIndex, _buffer, _fromIndex, _toIndex
+          - _fromIndex);
+      new MergeTask(_buffer, _fromIndex, mid, mid, _toIndex, _rows, _fromIndex)
+          .invoke();
+    }
+  }
+
+  /**
+   * Merges two sorted runs into the destination. The larger run is split at
+   * its middle row, the other run at the position of that row, and the two
+   * halves are merged in parallel.
+   */
+  private final class MergeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] _src;
+    private final int _fromIndex1;
+    private final int _toIndex1;
+    private final int _fromIndex2;
+    private final int _toIndex2;
+    private final int[] _dest;
+    private final int _destIndex;
+
+    MergeTask(int[] src, int fromIndex1, int toIndex1, int fromIndex2,
+        int toIndex2, int[] dest, int destIndex) {
+      _src = src;
+      _fromIndex1 = fromIndex1;
+      _toIndex1 = toIndex1;
+      _fromIndex2 = fromIndex2;
+      _toIndex2 = toIndex2;
+      _dest = dest;
+      _destIndex = destIndex;
+    }
+
+    @Override
+    protected void compute() {
+      final int length1 = _toIndex1 - _fromIndex1;
+      final int length2 = _toIndex2 - _fromIndex2;
+      if (length1 + length2 <= PARALLEL_THRESHOLD) {
+        merge(_src, _fromIndex1, _toIndex1, _fromIndex2, _toIndex2, _dest,
+            _destIndex);
+        return;
+      }
+
+      if (length1 < length2) {
+        new MergeTask(_src, _fromIndex2, _toIndex2, _fromIndex1, _toIndex1,
+            _dest, _destIndex).compute();
+        return;
+      }
+
+      final int mid1 = (_fromIndex1 + _toIndex1) >>> 1;
+      final int mid2 = lowerBound(_src, _fromIndex2, _toIndex2, _src[mid1]);
+      final int destMid = _destIndex + (mid1 - _fromIndex1)
+          + (mid2 - _fromIndex2);
+      _dest[destMid] = _src[mid1];
+
+      invokeAll(new MergeTask(_src, _fromIndex1, mid1, _fromIndex2, mid2,
+          _dest, _destIndex), new MergeTask(_src, mid1 + 1, _toIndex1, mid2,
+          _toIndex2, _dest, destMid + 1));
+    }
+  }
+
+}
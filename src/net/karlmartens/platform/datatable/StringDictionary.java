@@ -0,0 +1,183 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+import net.karlmartens.platform.io.StringDeserializer;
+import net.karlmartens.platform.io.StringSerializer;
+
+/**
+ * Distinct values of a {@link Type#STRING} column. Values are given codes in
+ * the order they are added and ranked with the type comparator once per
+ * distinct value, so that rows can be sorted and filtered on the ranks of
+ * their codes instead of comparing strings.
+ *
+ * @author karl
+ *
+ */
+final class StringDictionary {
+
+  private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+
+  private String[] _values = new String[0];
+  private int _size = 0;
+  private int[] _sorted;
+  private long[] _ranks;
+
+  /**
+   * Returns a dictionary holding the same codes that values can be added to
+   * independently.
+   */
+  StringDictionary copy() {
+    final StringDictionary copy = new StringDictionary();
+    copy._codes.putAll(_codes);
+    copy._values = _values.clone();
+    copy._size = _size;
+    copy._sorted = _sorted;
+    copy._ranks = _ranks;
+    return copy;
+  }
+
+  int size() {
+    return _size;
+  }
+
+  String get(int code) {
+    return _values[code];
+  }
+
+  /**
+   * Returns the code of the value, or -1 if it is not in the dictionary.
+   */
+  int codeOf(Object value) {
+    final Integer code = _codes.get(value);
+    return code == null ? -1 : code.intValue();
+  }
+
+  /**
+   * Returns the code of the value, adding it if it is not in the dictionary.
+   */
+  int add(String value) {
+    final Integer code = _codes.get(value);
+    if (code != null)
+      return code.intValue();
+
+    if (_size == _values.length)
+      _values = Arrays.copyOf(_values, Math.max(16, _size * 2));
+
+    _values[_size] = value;
+    _codes.put(value, Integer.valueOf(_size));
+    _sorted = null;
+    _ranks = null;
+    return _size++;
+  }
+
+  boolean isRanked() {
+    return _ranks != null;
+  }
+
+  /**
+   * Returns the rank of every code, values the comparator considers equal
+   * share a rank.
+   */
+  long[] ranks() {
+    if (_ranks != null)
+      return _ranks;
+
+    final Comparator<Object> comparator = Type.STRING.comparator();
+    final Integer[] order = new Integer[_size];
+    for (int i = 0; i < order.length; i++)
+      order[i] = Integer.valueOf(i);
+
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return comparator.compare(_values[o1.intValue()],
+            _values[o2.intValue()]);
+      }
+    });
+
+    final int[] sorted = new int[order.length];
+    final long[] ranks = new long[order.length];
+    long rank = 0;
+    for (int i = 0; i < order.length; i++) {
+      sorted[i] = order[i].intValue();
+      if (i > 0
+          && comparator.compare(_values[sorted[i - 1]],
+              _values[sorted[i]]) != 0)
+        rank++;
+
+      ranks[sorted[i]] = rank;
+    }
+
+    _sorted = sorted;
+    _ranks = ranks;
+    return ranks;
+  }
+
+  /**
+   * Returns the rank of the first value that is not less than the value, or
+   * Long.MAX_VALUE if there is none.
+   */
+  long lowerBound(Object value) {
+    final long[] ranks = ranks();
+    final Comparator<Object> comparator = Type.STRING.comparator();
+    int low = 0;
+    int high = _size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparator.compare(_values[_sorted[mid]], value) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    if (low == _size)
+      return Long.MAX_VALUE;
+
+    return ranks[_sorted[low]];
+  }
+
+  void write(WriteBuffer buffer) {
+    buffer.putInt(_size);
+    for (int i = 0; i < _size; i++)
+      StringSerializer.instance().write(buffer, _values[i]);
+  }
+
+  static StringDictionary read(ReadBuffer buffer) {
+    final StringDictionary dictionary = new StringDictionary();
+    final int size = buffer.getInt();
+    dictionary._values = new String[Math.max(16, size)];
+    for (int i = 0; i < size; i++) {
+      dictionary._values[i] = StringDeserializer.instance().read(buffer);
+      dictionary._codes.put(dictionary._values[i], Integer.valueOf(i));
+    }
+    dictionary._size = size;
+    return dictionary;
+  }
+
+}
@@ -0,0 +1,255 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Set;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+import net.karlmartens.platform.io.FileInputStream.ReadBuffer;
+import net.karlmartens.platform.io.FileOutputStream.WriteBuffer;
+
+/**
+ * Stores {@link Type#STRING} values dictionary encoded, every row holds the
+ * code of its value in the {@link StringDictionary}. Sorting and filtering
+ * work on the codes and their ranks instead of comparing strings.
+ * <p>
+ * Values that are no longer used stay in the dictionary until it grows to
+ * twice the number of rows, it is then compacted.
+ *
+ * @author karl
+ *
+ */
+final class StringVector extends ColumnVector {
+
+  private static final int MIN_COMPACT_SIZE = 1024;
+
+  private StringDictionary _dictionary = new StringDictionary();
+  private int[] _rows = new int[0];
+
+  @Override
+  Type type() {
+    return Type.STRING;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof String;
+  }
+
+  @Override
+  Object getValue(int index) {
+    return _dictionary.get(_rows[index]);
+  }
+
+  @Override
+  void setValue(int index, Object value) {
+    if (!supports(value))
+      throw new IllegalArgumentException();
+
+    _rows[index] = code((String) value);
+  }
+
+  @Override
+  void setValues(int index, Object values) {
+    if (!(values instanceof String[]))
+      throw new IllegalArgumentException();
+
+    // Not compacted part way, the loaded rows are not yet flagged non null
+    final String[] strings = (String[]) values;
+    for (int i = 0; i < strings.length; i++) {
+      if (strings[i] != null)
+        _rows[index + i] = _dictionary.add(strings[i]);
+    }
+  }
+
+  @Override
+  long[] doSortKeys() {
+    return sortKeys(this, _dictionary, IntBuffer.wrap(_rows));
+  }
+
+  @Override
+  int doCompareValues(int index1, int index2, Comparator<Object> comparator) {
+    // Ranking a grown dictionary on every comparison would cost more than
+    // comparing the two values
+    if (!_dictionary.isRanked())
+      return super.doCompareValues(index1, index2, comparator);
+
+    final long[] ranks = _dictionary.ranks();
+    return Long.compare(ranks[_rows[index1]], ranks[_rows[index2]]);
+  }
+
+  @Override
+  void doSelectRange(Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    selectRange(this, _dictionary, IntBuffer.wrap(_rows), from, to,
+        fromIndex, toIndex, selection);
+  }
+
+  @Override
+  void doSelectValues(Set<Object> values, int fromIndex, int toIndex,
+      long[] selection) {
+    selectValues(this, _dictionary, IntBuffer.wrap(_rows), values, fromIndex,
+        toIndex, selection);
+  }
+
+  @Override
+  ColumnVector copyValues() {
+    final StringVector copy = new StringVector();
+    copy._dictionary = _dictionary.copy();
+    copy._rows = _rows.clone();
+    return copy;
+  }
+
+  @Override
+  void prepareValues() {
+    _dictionary.ranks();
+  }
+
+  @Override
+  void resizeValues(int capacity) {
+    _rows = Arrays.copyOf(_rows, capacity);
+  }
+
+  @Override
+  void moveValues(int srcIndex, int destIndex, int length) {
+    System.arraycopy(_rows, srcIndex, _rows, destIndex, length);
+  }
+
+  @Override
+  void clearValues(int fromIndex, int toIndex) {
+    Arrays.fill(_rows, fromIndex, toIndex, 0);
+  }
+
+  @Override
+  void gatherValues(int[] order) {
+    final int[] rows = new int[_rows.length];
+    for (int i = 0; i < order.length; i++)
+      rows[i] = _rows[order[i]];
+    _rows = rows;
+  }
+
+  /**
+   * Writes the dictionary followed by the code of every row.
+   */
+  @Override
+  void writeValues(WriteBuffer buffer, int size) {
+    _dictionary.write(buffer);
+    buffer.putInts(_rows, 0, size);
+  }
+
+  @Override
+  void readValues(ReadBuffer buffer, int size) {
+    _dictionary = StringDictionary.read(buffer);
+    buffer.getInts(_rows, 0, size);
+  }
+
+  /**
+   * Returns the sort keys of the codes of a string vector whose gap is
+   * closed, the ranks of the codes, see {@link ColumnVector#sortKeys()}.
+   */
+  static long[] sortKeys(ColumnVector vector, StringDictionary dictionary,
+      IntBuffer rows) {
+    final long[] ranks = dictionary.ranks();
+    final long[] keys = new long[vector.size()];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = vector.isNull(i) ? NULL_KEY : ranks[rows.get(i)];
+    return keys;
+  }
+
+  /**
+   * Selects the rows of a string vector whose gap is closed on the ranks of
+   * their codes, see
+   * {@link ColumnVector#selectRange(Object, Object, int, int, long[])}.
+   */
+  static void selectRange(ColumnVector vector, StringDictionary dictionary,
+      IntBuffer rows, Object from, Object to, int fromIndex, int toIndex,
+      long[] selection) {
+    final long[] ranks = dictionary.ranks();
+    final long min = from == null ? Long.MIN_VALUE : dictionary
+        .lowerBound(from);
+    final long max = to == null ? Long.MAX_VALUE : dictionary.lowerBound(to);
+    for (int w = 0; w < selection.length; w++) {
+      final int index = fromIndex + (w << 6);
+      final int length = Math.min(64, toIndex - index);
+      if (length <= 0)
+        break;
+
+      // Null rows hold code 0, which has no rank while the dictionary is
+      // empty, the null bitmap decides for them
+      long bits = 0L;
+      for (int b = 0; b < length && ranks.length > 0; b++) {
+        final long rank = ranks[rows.get(index + b)];
+        if (rank >= min && rank < max)
+          bits |= 1L << b;
+      }
+      selection[w] &= vector.rangeWord(bits, index, from != null);
+    }
+  }
+
+  /**
+   * Selects the rows of a string vector whose gap is closed on their codes,
+   * see {@link ColumnVector#selectValues(Set, int, int, long[])}.
+   */
+  static void selectValues(ColumnVector vector, StringDictionary dictionary,
+      IntBuffer rows, Set<Object> values, int fromIndex, int toIndex,
+      long[] selection) {
+    final BitSet codes = new BitSet(dictionary.size());
+    for (Object value : values) {
+      final int code = dictionary.codeOf(value);
+      if (code >= 0)
+        codes.set(code);
+    }
+
+    final boolean acceptsNull = values.contains(null);
+    for (int i = fromIndex; i < toIndex; i++) {
+      final int bit = i - fromIndex;
+      if ((selection[bit >>> 6] & (1L << bit)) == 0)
+        continue;
+
+      if (vector.isNull(i) ? !acceptsNull : !codes.get(rows.get(i)))
+        selection[bit >>> 6] &= ~(1L << bit);
+    }
+  }
+
+  private int code(String value) {
+    if (_dictionary.codeOf(value) < 0 && _dictionary.size() >= MIN_COMPACT_SIZE
+        && _dictionary.size() >= 2 * size())
+      compact();
+
+    return _dictionary.add(value);
+  }
+
+  /**
+   * Removes the values no longer held by any row from the dictionary.
+   */
+  private void compact() {
+    final StringDictionary dictionary = new StringDictionary();
+    for (int i = 0; i < size(); i++) {
+      final int p = position(i);
+      if (!isNull(i))
+        _rows[p] = dictionary.add(_dictionary.get(_rows[p]));
+    }
+    _dictionary = dictionary;
+  }
+
+}
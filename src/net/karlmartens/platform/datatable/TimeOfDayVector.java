@@ -0,0 +1,66 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import static org.joda.time.DateTimeConstants.MILLIS_PER_DAY;
+
+import net.karlmartens.platform.datatable.DataTableColumn.Type;
+
+import org.joda.time.LocalTime;
+
+/**
+ * Stores {@link Type#TIME_OF_DAY} values as the millisecond of the day.
+ *
+ * @author karl
+ *
+ */
+final class TimeOfDayVector extends IntVector {
+
+  @Override
+  Type type() {
+    return Type.TIME_OF_DAY;
+  }
+
+  @Override
+  boolean supports(Object value) {
+    return value instanceof LocalTime;
+  }
+
+  @Override
+  int encode(Object value) {
+    if (!supports(value))
+      throw new IllegalArgumentException();
+
+    return ((LocalTime) value).getMillisOfDay();
+  }
+
+  /**
+   * Keeps the time of day of the instant.
+   */
+  @Override
+  int encode(long millis) {
+    return (int) Math.floorMod(millis, (long) MILLIS_PER_DAY);
+  }
+
+  @Override
+  Object decode(int value) {
+    return LocalTime.fromMillisOfDay(value);
+  }
+
+}
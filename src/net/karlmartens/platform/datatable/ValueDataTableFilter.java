@@ -41,4 +41,37 @@ public final class ValueDataTableFilter implements DataTableFilter {
     return _accepts.contains(row.cell(_columnIndex).value());
   }
 
+  int columnIndex() {
+    return _columnIndex;
+  }
+
+  Set<Object> values() {
+    return _accepts;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + _columnIndex;
+    result = prime * result + _accepts.hashCode();
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    ValueDataTableFilter other = (ValueDataTableFilter) obj;
+    if (_columnIndex != other._columnIndex)
+      return false;
+    if (!_accepts.equals(other._accepts))
+      return false;
+    return true;
+  }
+
 }
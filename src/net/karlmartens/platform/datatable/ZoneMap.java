@@ -0,0 +1,156 @@
+/**
+ *   Copyright 2012 Karl Martens
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *   net.karlmartens.platform, is a library of shared basic utility classes
+ */
+
+package net.karlmartens.platform.datatable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Summary of a {@link ColumnVector} per block of {@link #BLOCK_SIZE} rows: the
+ * rows holding the smallest and largest value and the number of null rows.
+ * Filters use it to skip blocks that cannot match and the column range is
+ * recomputed from the blocks instead of the rows.
+ * <p>
+ * Updating a row invalidates its block, inserting or removing rows
+ * invalidates the blocks from that row onwards. Invalid blocks are summarized
+ * again when they are next needed.
+ *
+ * @author karl
+ *
+ */
+final class ZoneMap {
+
+  static final int BLOCK_SIZE = 1024;
+
+  private final ColumnVector _vector;
+  private final BitVector _valid = new BitVector();
+
+  private int[] _min = new int[0];
+  private int[] _max = new int[0];
+  private int[] _nullCount = new int[0];
+
+  ZoneMap(ColumnVector vector) {
+    _vector = vector;
+  }
+
+  void invalidate(int index) {
+    _valid.set(index / BLOCK_SIZE, false);
+  }
+
+  void invalidateFrom(int index) {
+    _valid.clear(index / BLOCK_SIZE, _min.length);
+  }
+
+  /**
+   * Summarizes all invalid blocks.
+   */
+  void validate(Comparator<Object> comparator) {
+    for (int block = 0; block < blockCount(); block++)
+      validate(block, comparator);
+  }
+
+  /**
+   * Returns the rows holding the first smallest and the last largest value,
+   * both are -1 if all rows are null.
+   */
+  int[] extremes(Comparator<Object> comparator) {
+    int min = -1;
+    int max = -1;
+    for (int block = 0; block < blockCount(); block++) {
+      validate(block, comparator);
+      if (_min[block] < 0)
+        continue;
+
+      if (min < 0 || _vector.compareValues(min, _min[block], comparator) > 0)
+        min = _min[block];
+
+      if (max < 0 || _vector.compareValues(max, _max[block], comparator) <= 0)
+        max = _max[block];
+    }
+
+    return new int[] { min, max };
+  }
+
+  /**
+   * Returns true if no row of the block can hold a value greater than or
+   * equal to from and less than to, a null bound is unbounded.
+   */
+  boolean excludes(int block, Object from, Object to,
+      Comparator<Object> comparator) {
+    validate(block, comparator);
+    if (from == null && _nullCount[block] > 0)
+      return false;
+
+    if (_min[block] < 0)
+      return true;
+
+    if (from != null
+        && comparator.compare(_vector.get(_max[block]), from) < 0)
+      return true;
+
+    return to != null
+        && comparator.compare(_vector.get(_min[block]), to) >= 0;
+  }
+
+  private int blockCount() {
+    return (_vector.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+  }
+
+  private void validate(int block, Comparator<Object> comparator) {
+    if (block >= _min.length) {
+      final int length = Math.max(blockCount(), block + 1);
+      _min = Arrays.copyOf(_min, length);
+      _max = Arrays.copyOf(_max, length);
+      _nullCount = Arrays.copyOf(_nullCount, length);
+    }
+
+    if (_valid.get(block))
+      return;
+
+    final int fromIndex = block * BLOCK_SIZE;
+    final int toIndex = Math.min(_vector.size(), fromIndex + BLOCK_SIZE);
+    int min = -1;
+    int max = -1;
+    int nullCount = 0;
+    for (int i = fromIndex; i < toIndex; i++) {
+      if (_vector.isNull(i)) {
+        nullCount++;
+        continue;
+      }
+
+      if (min < 0) {
+        min = i;
+        max = i;
+        continue;
+      }
+
+      if (_vector.compareValues(min, i, comparator) > 0)
+        min = i;
+
+      if (_vector.compareValues(max, i, comparator) <= 0)
+        max = i;
+    }
+
+    _min[block] = min;
+    _max[block] = max;
+    _nullCount[block] = nullCount;
+    _valid.set(block, true);
+  }
+
+}
@@ -90,6 +90,18 @@ public class FileInputStream<T> implements Iterator<T> {
 			_buffer = ByteBuffer.allocate(8096);
 			_buffer.flip();
 		}
+
+		private ReadBuffer(ByteBuffer buffer) {
+			_channel = null;
+			_buffer = buffer;
+		}
+
+		/**
+		 * Reads the remaining bytes of the buffer, such as a mapped file.
+		 */
+		public static ReadBuffer wrap(ByteBuffer buffer) {
+			return new ReadBuffer(buffer);
+		}
 		
 		public boolean hasRemaining() {
 			if (!_buffer.hasRemaining()) {
@@ -149,6 +161,68 @@ public class FileInputStream<T> implements Iterator<T> {
 			return arr;
 		}
 		
+		/**
+		 * Returns the next numBytes bytes as a buffer of their own. The bytes
+		 * of a wrapped buffer are shared instead of copied.
+		 */
+		public ByteBuffer getSlice(int numBytes) {
+			if (_channel != null)
+				return ByteBuffer.wrap(getBytes(new byte[numBytes]));
+
+			if (_buffer.remaining() < numBytes)
+				throw new BufferUnderflowException();
+
+			ByteBuffer slice = _buffer.slice();
+			slice.limit(numBytes);
+			_buffer.position(_buffer.position() + numBytes);
+			return slice;
+		}
+
+		public int[] getInts(int[] arr, int offset, int length) {
+			while (length > 0) {
+				checkRequired(4);
+				int count = Math.min(length, _buffer.remaining() / 4);
+				if (count == 0)
+					throw new BufferUnderflowException();
+
+				_buffer.asIntBuffer().get(arr, offset, count);
+				_buffer.position(_buffer.position() + count * 4);
+				offset += count;
+				length -= count;
+			}
+			return arr;
+		}
+
+		public long[] getLongs(long[] arr, int offset, int length) {
+			while (length > 0) {
+				checkRequired(8);
+				int count = Math.min(length, _buffer.remaining() / 8);
+				if (count == 0)
+					throw new BufferUnderflowException();
+
+				_buffer.asLongBuffer().get(arr, offset, count);
+				_buffer.position(_buffer.position() + count * 8);
+				offset += count;
+				length -= count;
+			}
+			return arr;
+		}
+
+		public double[] getDoubles(double[] arr, int offset, int length) {
+			while (length > 0) {
+				checkRequired(8);
+				int count = Math.min(length, _buffer.remaining() / 8);
+				if (count == 0)
+					throw new BufferUnderflowException();
+
+				_buffer.asDoubleBuffer().get(arr, offset, count);
+				_buffer.position(_buffer.position() + count * 8);
+				offset += count;
+				length -= count;
+			}
+			return arr;
+		}
+
 		private void checkRequired(int numBytes) {
 			if (_buffer.remaining() < numBytes) {
 				read();
@@ -156,6 +230,9 @@ public class FileInputStream<T> implements Iterator<T> {
 		}
 
 		private void read() {
+			if (_channel == null)
+				return;
+
 			_buffer.compact();
 			try {
 				_channel.read(_buffer);
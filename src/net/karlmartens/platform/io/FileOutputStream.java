@@ -79,7 +79,44 @@ public class FileOutputStream<T> {
     
     public void putBytes(ByteBuffer bb) {
       while (bb.hasRemaining()) {
-        putByte(bb.get());
+        checkRequired(1);
+        int limit = bb.limit();
+        bb.limit(bb.position() + Math.min(bb.remaining(), _buffer.remaining()));
+        _buffer.put(bb);
+        bb.limit(limit);
+      }
+    }
+
+    public void putInts(int[] values, int offset, int length) {
+      while (length > 0) {
+        checkRequired(4);
+        int count = Math.min(length, _buffer.remaining() / 4);
+        _buffer.asIntBuffer().put(values, offset, count);
+        _buffer.position(_buffer.position() + count * 4);
+        offset += count;
+        length -= count;
+      }
+    }
+
+    public void putLongs(long[] values, int offset, int length) {
+      while (length > 0) {
+        checkRequired(8);
+        int count = Math.min(length, _buffer.remaining() / 8);
+        _buffer.asLongBuffer().put(values, offset, count);
+        _buffer.position(_buffer.position() + count * 8);
+        offset += count;
+        length -= count;
+      }
+    }
+
+    public void putDoubles(double[] values, int offset, int length) {
+      while (length > 0) {
+        checkRequired(8);
+        int count = Math.min(length, _buffer.remaining() / 8);
+        _buffer.asDoubleBuffer().put(values, offset, count);
+        _buffer.position(_buffer.position() + count * 8);
+        offset += count;
+        length -= count;
       }
     }
 
@@ -30,12 +30,32 @@ import static net.karlmartens.platform.datatable.DataTableColumn.Type.STRING;
 import static net.karlmartens.platform.datatable.DataTableColumn.Type.TIME_OF_DAY;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.karlmartens.platform.datatable.DataTableAggregate.Function;
 import net.karlmartens.platform.function.Strings;
+import net.karlmartens.platform.io.FileInputStream;
+import net.karlmartens.platform.io.FileOutputStream;
+import net.karlmartens.platform.test.FileRule;
 import net.karlmartens.platform.util.Range;
 
 import org.joda.time.LocalDate;
 import org.joda.time.LocalDateTime;
 import org.joda.time.LocalTime;
+import org.junit.Rule;
 import org.junit.Test;
 
 import com.google.gson.Gson;
@@ -46,6 +66,9 @@ public class DataTableTest {
 
   private static final double TOLERANCE = 0.00001;
 
+  @Rule
+  public FileRule file = FileRule.name("datatable", ".bin");
+
   @Test
   public void test_addColumn_type() throws Exception {
     final DataTable table = new DataTable();
@@ -482,6 +505,61 @@ public class DataTableTest {
     assertEquals(new LocalDateTime(2013, 1, 1, 0, 5, 59, 999), range.maximum());
   }
 
+  @Test
+  public void test_getColumnRange_update() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+
+    for (int i = 0; i < 5000; i++)
+      table.addRow(i);
+    assertEquals(0, table.getColumnRange(0).minimum());
+    assertEquals(4999, table.getColumnRange(0).maximum());
+
+    table.setValue(2500, 0, -1);
+    table.removeRow(4999);
+    assertEquals(-1, table.getColumnRange(0).minimum());
+    assertEquals(4998, table.getColumnRange(0).maximum());
+
+    table.insertRows(0, 1);
+    table.setValue(0, 0, 10000);
+    table.setValue(2501, 0, 7);
+    assertEquals(0, table.getColumnRange(0).minimum());
+    assertEquals(10000, table.getColumnRange(0).maximum());
+    assertArrayEquals(new int[] { 0 }, table.getFilteredRows(
+        new RangeDataTableFilter(NUMBER, 0, 5000, null)));
+  }
+
+  @Test
+  public void test_getColumnNullCount() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+
+    table.addRow("Apple");
+    table.addRows(3);
+    table.setValue(1, 0, "Banana");
+    assertEquals(2, table.getColumnNullCount(0));
+
+    table.removeRow(2);
+    table.setValue(0, 0, (String) null);
+    assertEquals(2, table.getColumnNullCount(0));
+  }
+
+  @Test
+  public void test_getColumnDistinctCount() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addColumn(STRING);
+
+    for (int i = 0; i < 20000; i++)
+      table.addRow(i % 5000, "Item " + (i % 3));
+
+    assertEquals(5000, table.getColumnDistinctCount(0), 250);
+    assertEquals(3, table.getColumnDistinctCount(1));
+
+    table.setValue(0, 1, "Item 3");
+    assertEquals(4, table.getColumnDistinctCount(1));
+  }
+
   @Test
   public void test_getColumnRole() throws Exception {
     final DataTable table = new DataTable();
@@ -535,6 +613,109 @@ public class DataTableTest {
     assertArrayEquals(new int[] { 3 }, indices);
   }
 
+  @Test
+  public void test_getFilteredRows_range() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addColumn(DATE);
+
+    for (int i = 0; i < 3000; i++) {
+      final int row = table.addRow(i % 100 - 50.5, new LocalDate(2012, 1, 1)
+          .plusDays(i % 7));
+      if (i % 10 == 3)
+        table.setValue(row, 0, (Number) null);
+    }
+
+    final int[] numbers = table.getFilteredRows(new RangeDataTableFilter(
+        NUMBER, 0, -1, 1));
+    assertEquals(60, numbers.length);
+    assertEquals(-0.5, table.getValue(numbers[0], 0));
+    assertEquals(0.5, table.getValue(numbers[59], 0));
+
+    final int[] nulls = table.getFilteredRows(new RangeDataTableFilter(NUMBER,
+        0, null, -50));
+    assertEquals(330, nulls.length);
+
+    final int[] both = table.getFilteredRows(new RangeDataTableFilter(NUMBER,
+        0, -1, 1), new RangeDataTableFilter(DATE, 1, new LocalDate(2012, 1, 3),
+        null));
+    for (int row : both)
+      assertEquals(true, ((LocalDate) table.getValue(row, 1))
+          .isAfter(new LocalDate(2012, 1, 2)));
+  }
+
+  @Test
+  public void test_getFilteredRows_range_string() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+
+    table.addRow("Item 10");
+    table.addRow("Item 2");
+    table.addRows(1);
+    table.addRow("Item 9");
+    table.addRow("Item 2");
+    table.addRow("Apple");
+
+    assertArrayEquals(new int[] { 1, 3, 4 }, table.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, "Item 2", "Item 10")));
+    assertArrayEquals(new int[] { 2, 5 }, table.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, null, "B")));
+  }
+
+  @Test
+  public void test_getFilteredRows_index() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+    table.createIndex(0);
+    table.createIndex(1);
+
+    table.addRow("Oranges", 3);
+    table.addRow("Apple", 5);
+    table.addRow("Banana", 2);
+    table.addRow("Grape", 4);
+    table.addRow("Cherry", 1);
+
+    assertArrayEquals(new int[] { 3 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, "Apple", "Grape"), new RangeDataTableFilter(
+            NUMBER, 1, 1, 5)));
+
+    table.setValue(3, 1, 6);
+    table.insertRows(0, 1);
+    table.removeRow(2);
+    assertArrayEquals(new int[] { 0, 2, 4 }, table.getFilteredRows(
+        new RangeDataTableFilter(NUMBER, 1, null, 3)));
+    assertArrayEquals(new int[] { 3 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, "Grape")));
+  }
+
+  @Test
+  public void test_getFilteredRows_hashIndex() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+    table.createHashIndex(0);
+    table.createHashIndex(1);
+
+    table.addRow("Apple", 3);
+    table.addRow("Banana", 5);
+    table.addRow("Apple", 5.0);
+    table.addRow("Grape", 5);
+
+    assertArrayEquals(new int[] { 1, 3 }, table.getFilteredRows(
+        new ValueDataTableFilter(1, 5)));
+    assertArrayEquals(new int[] { 3 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, "Grape", "Cherry"),
+        new ValueDataTableFilter(1, 5)));
+
+    table.setValue(1, 0, "Apple");
+    table.insertRows(1, 1);
+    assertArrayEquals(new int[] { 0, 2, 3 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, "Apple")));
+    assertArrayEquals(new int[] { 1 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, (Object) null)));
+  }
+
   @Test
   public void test_getFormattedValue_default_string() throws Exception {
     final DataTable table = new DataTable();
@@ -947,6 +1128,24 @@ public class DataTableTest {
         new DataTableSort(0, true), new DataTableSort(1, false)));
   }
 
+  @Test
+  public void test_getSortedRows_nulls() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addColumn(STRING);
+
+    table.addRow(2.5, "b");
+    table.addRows(1);
+    table.addRow(-3, "a");
+    table.addRow(0, "B");
+    table.addRow(-0.5);
+
+    assertArrayEquals(new int[] { 1, 2, 4, 3, 0 }, table.getSortedRows(0));
+    assertArrayEquals(new int[] { 0, 3, 4, 2, 1 },
+        table.getSortedRows(new DataTableSort(0, true)));
+    assertArrayEquals(new int[] { 1, 4, 2, 0, 3 }, table.getSortedRows(1));
+  }
+
   @Test
   public void test_getValue() throws Exception {
     final DataTable table = new DataTable();
@@ -1315,6 +1514,1134 @@ public class DataTableTest {
         "}"), jsonToString(table.toJson()));
   }
 
+  @Test
+  public void test_removeRows() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+
+    table.addRow("A", 1);
+    table.addRow("B", 2);
+    table.addRow("C", 3);
+    table.addRow("D", 4);
+    table.setRowProperty(3, "style", "bold");
+
+    table.removeRows(1, 2);
+
+    assertEquals(2, table.getNumberOfRows());
+    assertEquals("A", table.getValue(0, 0));
+    assertEquals("D", table.getValue(1, 0));
+    assertEquals(4, table.getValue(1, 1));
+    assertEquals("bold", table.getRowProperty(1, "style"));
+  }
+
+  @Test
+  public void test_removeColumn() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+    table.addColumn(BOOLEAN);
+
+    table.addRow("A", 1, TRUE);
+    table.removeColumn(1);
+
+    assertEquals(2, table.getNumberOfColumns());
+    assertEquals(BOOLEAN, table.getColumnType(1));
+    assertEquals(TRUE, table.getValue(0, 1));
+  }
+
+  @Test
+  public void test_setValue() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addColumn(DATE);
+    table.addColumn(TIME_OF_DAY);
+    table.addColumn(DATE_TIME);
+    table.addRows(2);
+
+    table.setValue(0, 0, 12.5);
+    table.setValue(1, 0, 7L);
+    table.setValue(0, 1, new LocalDate(1969, 12, 31));
+    table.setValue(0, 2, new LocalTime(23, 59, 59, 999));
+    table.setValue(0, 3, new LocalDateTime(1900, 2, 28, 6, 30, 0, 1));
+
+    assertEquals(12.5, table.getValue(0, 0));
+    assertEquals(Long.valueOf(7L), table.getValue(1, 0));
+    assertEquals(new LocalDate(1969, 12, 31), table.getValue(0, 1));
+    assertEquals(new LocalTime(23, 59, 59, 999), table.getValue(0, 2));
+    assertEquals(new LocalDateTime(1900, 2, 28, 6, 30, 0, 1),
+        table.getValue(0, 3));
+    assertEquals(null, table.getValue(1, 1));
+
+    table.setValue(0, 0, (Number) null);
+    assertEquals(null, table.getValue(0, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_setValue_wrongType() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addRows(1);
+
+    table.setValue(0, 0, "A");
+  }
+
+  @Test
+  public void test_sort() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+
+    table.addRow("Cherry", 2.1);
+    table.addRow("Apple", 3.2);
+    table.addRow("Banana", 5);
+    table.setFormattedValue(0, 1, "two");
+    table.setRowProperty(1, "style", "bold");
+
+    table.sort(0);
+
+    assertEquals("Apple", table.getValue(0, 0));
+    assertEquals("bold", table.getRowProperty(0, "style"));
+    assertEquals("Banana", table.getValue(1, 0));
+    assertEquals(5, table.getValue(1, 1));
+    assertEquals("Cherry", table.getValue(2, 0));
+    assertEquals("two", table.getFormattedValue(2, 1));
+  }
+
+  @Test
+  public void test_getParallelSortedRows() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addColumn(STRING);
+
+    for (int i = 0; i < 50000; i++) {
+      final int value = (i * 7919) % 1013;
+      final int row = table.addRow(value, "Item " + (value % 31));
+      if (value % 7 == 0)
+        table.setValue(row, 0, (Number) null);
+    }
+
+    final DataTableSort[] sort = new DataTableSort[] {
+        new DataTableSort(1, false), new DataTableSort(0, true) };
+    assertArrayEquals(table.getSortedRows(sort),
+        table.getParallelSortedRows(sort));
+  }
+
+  @Test
+  public void test_fromJson() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(new DataTableColumn(STRING).label("Name").id("A")
+        .role(DOMAIN));
+    table.addColumn(new DataTableColumn(NUMBER).pattern("#,##0"));
+    table.addColumn(BOOLEAN);
+    table.addColumn(DATE);
+    table.addColumn(TIME_OF_DAY);
+    table.addColumn(DATE_TIME);
+
+    table.addRow("Red", 10, TRUE, new LocalDate(2012, 1, 1), new LocalTime(13,
+        23, 15, 37), new LocalDateTime(2012, 1, 1, 13, 23, 15, 37));
+    table.addRow("Blue", 15.7, FALSE);
+    table.addRows(1);
+    table.setFormattedValue(1, 1, "15.70");
+    for (int i = 0; i < 2000; i++)
+      table.addRow("Row " + i, i * 0.5);
+
+    final DataTable copy = DataTable.fromJson(new StringReader(table
+        .toString()));
+    assertEquals(table.getNumberOfRows(), copy.getNumberOfRows());
+    assertEquals(table.toString(), copy.toString());
+    assertEquals(Integer.valueOf(10), copy.getValue(0, 1));
+    assertEquals(new LocalDate(2012, 1, 1), copy.getValue(0, 3));
+    assertEquals(new LocalTime(13, 23, 15, 37), copy.getValue(0, 4));
+    assertEquals(DOMAIN, copy.getColumnRole(0));
+    assertEquals("#,##0", copy.getColumnPattern(1));
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    table.toJson(out);
+    assertEquals(table.toString(),
+        DataTable.fromJson(new ByteArrayInputStream(out.toByteArray()))
+            .toString());
+  }
+
+  @Test
+  public void test_fromJson_properties() throws Exception {
+    final DataTable table = DataTable.fromJson(new StringReader(Strings.lines(
+        "{", //
+        "  \"cols\": [{\"type\": \"string\", \"p\": {\"a\": \"b\"}},", //
+        "    {\"type\": \"date\"}],", //
+        "  \"rows\": [", //
+        "    {\"c\": [{\"v\": \"Red\", \"p\": {\"style\": \"x\"}},", //
+        "      {\"v\": {\"year\": 2012, \"month\": 2, \"day\": 3}}],", //
+        "      \"p\": {\"row\": true}},", //
+        "    {\"c\": [null, {\"v\": null, \"f\": \"none\"}]}", //
+        "  ]", //
+        "}")));
+
+    assertEquals(2, table.getNumberOfRows());
+    assertEquals("b", table.getColumnProperty(0, "a"));
+    assertEquals("x", table.getProperty(0, 0, "style"));
+    assertEquals(TRUE, table.getRowProperty(0, "row"));
+    assertEquals(new LocalDate(2012, 2, 3), table.getValue(0, 1));
+    assertEquals(null, table.getValue(1, 0));
+    assertEquals(null, table.getValue(1, 1));
+    assertEquals("none", table.getFormattedValue(1, 1));
+  }
+
+  @Test
+  public void test_snapshot() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(new DataTableColumn(STRING).label("Name").id("A")
+        .role(DOMAIN).setProperty("width", 10));
+    table.addColumn(new DataTableColumn(NUMBER).pattern("#,##0"));
+    table.addColumn(BOOLEAN);
+    table.addColumn(DATE);
+    table.addColumn(TIME_OF_DAY);
+    table.addColumn(DATE_TIME);
+    table.setTableProperty("title", "Snapshot");
+
+    for (int i = 0; i < 1000; i++) {
+      table.addRow("Row \u00e9 " + (i % 37), i % 3 == 0 ? i : i * 0.25,
+          i % 2 == 0, new LocalDate(2012, 1, 1).plusDays(i), new LocalTime(
+              13, 23, 15, 37).plusMinutes(i), new LocalDateTime(2012, 1, 1,
+              13, 23, 15, 37).plusHours(i));
+    }
+    for (int i = 0; i < 1000; i += 7)
+      table.setValue(i, i % 6, (String) null);
+    table.setFormattedValue(5, 1, "1.25");
+    table.setProperty(6, 3, "style", new LocalDate(2012, 2, 3));
+    table.setRowProperty(7, "selected", TRUE);
+
+    FileOutputStream.create(file.path(), DataTableSerializer.instance())
+        .write(Collections.singletonList(table).iterator());
+    final DataTable copy = FileInputStream.create(file.path(),
+        DataTableDeserializer.instance()).next();
+
+    assertEquals(table.toString(), copy.toString());
+    assertEquals("Snapshot", copy.getTableProperty("title"));
+    assertEquals(10, copy.getColumnProperty(0, "width"));
+    assertEquals(DOMAIN, copy.getColumnRole(0));
+    assertEquals(new LocalDate(2012, 2, 3), copy.getProperty(6, 3, "style"));
+    assertEquals(TRUE, copy.getRowProperty(7, "selected"));
+    for (int col = 0; col < 6; col++) {
+      assertEquals(table.getColumnNullCount(col),
+          copy.getColumnNullCount(col));
+      assertEquals(table.getColumnRange(col).minimum(), copy
+          .getColumnRange(col).minimum());
+      assertEquals(table.getColumnRange(col).maximum(), copy
+          .getColumnRange(col).maximum());
+    }
+    assertArrayEquals(table.getSortedRows(0, 1), copy.getSortedRows(0, 1));
+
+    table.setValue(3, 0, "Row \u00e9 5");
+    copy.setValue(3, 0, "Row \u00e9 5");
+    final ValueDataTableFilter filter = new ValueDataTableFilter(0,
+        "Row \u00e9 5");
+    assertArrayEquals(table.getFilteredRows(filter),
+        copy.getFilteredRows(filter));
+  }
+
+  @Test
+  public void test_map() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+    table.addColumn(BOOLEAN);
+    table.addColumn(DATE);
+    table.addColumn(TIME_OF_DAY);
+    table.addColumn(DATE_TIME);
+    for (int i = 0; i < 3000; i++) {
+      table.addRow("Row " + (i % 101), i % 3 == 0 ? i : i * -0.25, i % 2 == 0,
+          new LocalDate(2012, 1, 1).plusDays(i % 400), new LocalTime(13, 23,
+              15, 37).plusMinutes(i), new LocalDateTime(2012, 1, 1, 13, 23,
+              15, 37).plusHours(i));
+    }
+    for (int i = 0; i < 3000; i += 11)
+      table.setValue(i, i % 6, (String) null);
+    table.setFormattedValue(5, 1, "1.25");
+
+    FileOutputStream.create(file.path(), DataTableSerializer.instance())
+        .write(Collections.singletonList(table).iterator());
+    final DataTable mapped = DataTableDeserializer.map(file.path());
+
+    assertEquals(true, mapped.isReadOnly());
+    assertEquals(table.toString(), mapped.toString());
+    assertArrayEquals(table.getSortedRows(0, 1, 5),
+        mapped.getSortedRows(0, 1, 5));
+    for (int col = 0; col < 6; col++) {
+      assertArrayEquals(table.getSortedRows(col), mapped.getSortedRows(col));
+      assertEquals(table.getColumnRange(col).minimum(), mapped
+          .getColumnRange(col).minimum());
+      assertEquals(table.getColumnRange(col).maximum(), mapped
+          .getColumnRange(col).maximum());
+    }
+
+    final DataTableFilter[] filters = new DataTableFilter[] {
+        new RangeDataTableFilter(STRING, 0, "Row 20", "Row 50"),
+        new RangeDataTableFilter(NUMBER, 1, -100, 500),
+        new ValueDataTableFilter(2, TRUE),
+        new RangeDataTableFilter(DATE, 3, new LocalDate(2012, 2, 1), null),
+        new ValueDataTableFilter(0, "Row 7", "Row 8", null) };
+    for (DataTableFilter filter : filters) {
+      assertArrayEquals(table.getFilteredRows(filter),
+          mapped.getFilteredRows(filter));
+    }
+
+    mapped.createIndex(1);
+    assertArrayEquals(table.getFilteredRows(filters[1]),
+        mapped.getFilteredRows(filters[1]));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_map_readOnly() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addRow(1);
+
+    FileOutputStream.create(file.path(), DataTableSerializer.instance())
+        .write(Collections.singletonList(table).iterator());
+    DataTableDeserializer.map(file.path()).setValue(0, 0, 2);
+  }
+
+  @Test
+  public void test_view() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING, "Name", "A");
+    table.addColumn(NUMBER, "Value", "B");
+    table.addColumn(DATE, "Date", "C");
+    table.addRow("Red", 3, new LocalDate(2012, 1, 3));
+    table.addRow("Blue", 1, new LocalDate(2012, 1, 1));
+    table.addRow("Green", 2, new LocalDate(2012, 1, 2));
+    table.addRow("Black", 2, new LocalDate(2012, 1, 4));
+    table.setFormattedValue(2, 1, "two");
+
+    final DataTableView sorted = new DataTableView(table,
+        table.getSortedRows(1), new int[] { 1, 0 });
+    assertEquals(4, sorted.getNumberOfRows());
+    assertEquals(2, sorted.getNumberOfColumns());
+    assertEquals("Value", sorted.getColumnLabel(0));
+    assertEquals("Blue", sorted.getValue(0, 1));
+    assertEquals("two", sorted.getFormattedValue(1, 0));
+    assertEquals(2, sorted.getTableRowIndex(1));
+    assertArrayEquals(new int[] { 2, 0, 1, 3 }, sorted.getSortedRows(1));
+    assertArrayEquals(new int[] { 1, 2 }, sorted.getFilteredRows(
+        new RangeDataTableFilter(NUMBER, 0, 2, 3)));
+
+    final DataTableView stacked = new DataTableView(sorted, new int[] { 2, 1,
+        0 }, new int[] { 1 });
+    assertEquals("Black", stacked.getValue(0, 0));
+    assertEquals(3, stacked.getTableRowIndex(0));
+    assertEquals(0, stacked.getTableColumnIndex(0));
+    assertEquals("Black", stacked.getColumnRange(0).minimum());
+    assertEquals("Green", stacked.getColumnRange(0).maximum());
+    assertArrayEquals(new int[] { 0 }, stacked.getFilteredRows(
+        new DataTableFilter() {
+          @Override
+          public boolean accepts(DataTableRow row) {
+            return row.cell(0).value().toString().startsWith("Bla");
+          }
+        }));
+
+    final DataTable copy = new DataTable();
+    copy.addColumn(STRING, "Name", "A");
+    copy.addRow("Black");
+    copy.addRow("Green");
+    copy.addRow("Blue");
+    assertEquals(copy.toString(), stacked.toString());
+    assertEquals(jsonToString(copy.toJson()), jsonToString(stacked.toJson()));
+    assertEquals(table.toString(), new DataTableView(table).toString());
+  }
+
+  @Test
+  public void test_group() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING, "Name", "A");
+    table.addColumn(NUMBER, "Value", "B");
+    table.addColumn(DATE, "Date", "C");
+    table.addRow("Red", 3, new LocalDate(2012, 1, 3));
+    table.addRow("Blue", 1, new LocalDate(2012, 1, 1));
+    table.addRow("Red", 2, new LocalDate(2012, 1, 2));
+    table.addRow("Blue");
+    table.setValue(3, 2, new LocalDate(2012, 1, 4));
+    table.addRows(1);
+    table.setValue(4, 1, 5);
+
+    final DataTable grouped = table.group(new int[] { 0 },
+        new DataTableAggregate(1, Function.SUM), new DataTableAggregate(1,
+            Function.COUNT), new DataTableAggregate(1, Function.AVERAGE),
+        new DataTableAggregate(2, Function.MAX));
+
+    final DataTable expected = new DataTable();
+    expected.addColumn(STRING, "Name", "A");
+    expected.addColumn(NUMBER, "Value");
+    expected.addColumn(NUMBER, "Value");
+    expected.addColumn(NUMBER, "Value");
+    expected.addColumn(DATE, "Date");
+    expected.addRows(1);
+    expected.setValue(0, 1, 5.0);
+    expected.setValue(0, 2, 1);
+    expected.setValue(0, 3, 5.0);
+    expected.addRow("Blue", 1.0, 1, 1.0, new LocalDate(2012, 1, 4));
+    expected.addRow("Red", 5.0, 2, 2.5, new LocalDate(2012, 1, 3));
+    assertEquals(expected.toString(), grouped.toString());
+
+    final DataTable total = table.group(new int[0], new DataTableAggregate(
+        0, Function.MIN), new DataTableAggregate(2, Function.COUNT));
+    assertEquals(1, total.getNumberOfRows());
+    assertEquals("Blue", total.getValue(0, 0));
+    assertEquals(4, total.getValue(0, 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_group_sumString() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING, "Name", "A");
+    table.group(new int[0], new DataTableAggregate(0, Function.SUM));
+  }
+
+  @Test
+  public void test_group_highCardinality() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Key", "A");
+    table.addColumn(NUMBER, "Value", "B");
+    for (int i = 0; i < 5000; i++)
+      table.addRow((i * 7919) % 5000 / 2, 1);
+
+    final DataTable grouped = table.group(new int[] { 0 },
+        new DataTableAggregate(1, Function.COUNT));
+    assertEquals(2500, grouped.getNumberOfRows());
+    for (int i = 0; i < 2500; i++) {
+      assertEquals(i, grouped.getValue(i, 0));
+      assertEquals(2, grouped.getValue(i, 1));
+    }
+  }
+
+  @Test
+  public void test_parallelGroup() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING, "Name", "A");
+    table.addColumn(NUMBER, "Value", "B");
+    table.addColumn(NUMBER, "Key", "C");
+    final String[] names = { "Red", "Blue", "Green" };
+    table.addRows(100000);
+    for (int i = 0; i < 100000; i++) {
+      table.setValue(i, 0, names[i % 40000 % 3]);
+      if (i % 11 != 0)
+        table.setValue(i, 1, i % 101);
+      table.setValue(i, 2, i % 40000);
+    }
+
+    final DataTableAggregate[] aggregates = {
+        new DataTableAggregate(1, Function.SUM),
+        new DataTableAggregate(1, Function.COUNT),
+        new DataTableAggregate(1, Function.AVERAGE),
+        new DataTableAggregate(1, Function.MIN),
+        new DataTableAggregate(1, Function.MAX) };
+    final DataTable grouped = table.parallelGroup(new int[] { 0 },
+        aggregates);
+    assertEquals(3, grouped.getNumberOfRows());
+    assertEquals("Blue", grouped.getValue(0, 0));
+    assertEquals(table.group(new int[] { 0 }, aggregates).toString(),
+        grouped.toString());
+
+    final DataTable unique = table.parallelGroup(new int[] { 2, 0 },
+        aggregates);
+    assertEquals(40000, unique.getNumberOfRows());
+    assertEquals(table.group(new int[] { 2, 0 }, aggregates).toString(),
+        unique.toString());
+  }
+
+  @Test
+  public void test_pivot() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING, "Region", "A");
+    table.addColumn(NUMBER, "Year", "B");
+    table.addColumn(NUMBER, "Sales", "C");
+    table.addRow("West", 2012, 10);
+    table.addRow("East", 2011, 5);
+    table.addRow("West", 2011, 7);
+    table.addRow("West", 2012, 3);
+    table.addRow("East", 2013, 1);
+
+    final DataTable pivot = table.pivot(new int[] { 0 }, 1,
+        new DataTableAggregate(2, Function.SUM));
+
+    final DataTable expected = new DataTable();
+    expected.addColumn(STRING, "Region", "A");
+    expected.addColumn(NUMBER, "2011");
+    expected.addColumn(NUMBER, "2012");
+    expected.addColumn(NUMBER, "2013");
+    expected.addRow("East", 5.0);
+    expected.setValue(0, 3, 1.0);
+    expected.addRow("West", 7.0, 13.0);
+    assertEquals(expected.toString(), pivot.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_pivot_sumString() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+    table.addRow("a", 1);
+    table.pivot(new int[0], 1, new DataTableAggregate(0, Function.SUM));
+  }
+
+  @Test
+  public void test_join() throws Exception {
+    final DataTable facts = new DataTable();
+    facts.addColumn(STRING, "Color", "A");
+    facts.addColumn(NUMBER, "Amount", "B");
+    facts.addRow("Red", 1);
+    facts.addRow("Blue", 2);
+    facts.addRow("Pink", 3);
+    facts.addRow("Red", 4);
+    facts.addRows(1);
+
+    final DataTable colors = new DataTable();
+    colors.addColumn(STRING, "Name", "C");
+    colors.addColumn(new DataTableColumn(STRING).label("Code").pattern("#"));
+    colors.addRow("Blue", "B");
+    colors.addRow("Red", "R");
+    colors.addRow("Red", "R2");
+
+    final DataTable expected = new DataTable();
+    expected.addColumn(STRING, "Color", "A");
+    expected.addColumn(NUMBER, "Amount", "B");
+    expected.addColumn(new DataTableColumn(STRING).label("Code").pattern("#"));
+    expected.addRow("Red", 1, "R");
+    expected.addRow("Red", 1, "R2");
+    expected.addRow("Blue", 2, "B");
+    expected.addRow("Red", 4, "R");
+    expected.addRow("Red", 4, "R2");
+    final int[] key = { 0 };
+    assertEquals(expected.toString(), facts.innerJoin(colors, key, key)
+        .toString());
+
+    expected.insertRows(3, 1);
+    expected.setValue(3, 0, "Pink");
+    expected.setValue(3, 1, 3);
+    expected.addRows(1);
+    assertEquals(expected.toString(), facts.leftJoin(colors, key, key)
+        .toString());
+
+    // Both sides sorted on the key are merged
+    facts.sort(0);
+    final DataTable merged = facts.leftJoin(colors, key, key);
+    assertEquals(7, merged.getNumberOfRows());
+    assertEquals("Blue", merged.getValue(1, 0));
+    assertEquals("B", merged.getValue(1, 2));
+    assertEquals(null, merged.getValue(2, 2));
+    assertEquals("R2", merged.getValue(4, 2));
+    assertEquals(4, merged.getValue(6, 1));
+    assertEquals("R2", merged.getValue(6, 2));
+
+    // The larger side probes the hash table of the smaller side
+    final DataTable joined = colors.innerJoin(facts, key, key);
+    assertEquals(5, joined.getNumberOfRows());
+    assertEquals("Blue", joined.getValue(0, 0));
+    assertEquals(2, joined.getValue(0, 2));
+    assertEquals(1, joined.getValue(1, 2));
+    assertEquals(4, joined.getValue(2, 2));
+  }
+
+  @Test
+  public void test_join_cells() throws Exception {
+    final DataTable facts = new DataTable();
+    facts.addColumn(STRING, "Color", "A");
+    facts.addColumn(NUMBER, "Amount", "B");
+    facts.addRow("Red", 1);
+    facts.addRow("Blue", 2);
+    facts.setFormattedValue(1, 1, "two");
+    facts.setProperty(0, 1, "note", "first");
+
+    final DataTable colors = new DataTable();
+    colors.addColumn(STRING, "Name", "C");
+    colors.addColumn(STRING, "Code", "D");
+    colors.addRow("Red", "R");
+    colors.setFormattedValue(0, 1, "Rouge");
+    colors.setProperty(0, 1, "lang", "fr");
+
+    final int[] key = { 0 };
+    final DataTable joined = facts.leftJoin(colors, key, key);
+    assertEquals(2, joined.getNumberOfRows());
+    assertEquals("first", joined.getProperty(0, 1, "note"));
+    assertEquals("Rouge", joined.getFormattedValue(0, 2));
+    assertEquals("fr", joined.getProperty(0, 2, "lang"));
+    assertEquals("two", joined.getFormattedValue(1, 1));
+    assertEquals("", joined.getFormattedValue(1, 2));
+    assertEquals(Collections.emptyMap(), joined.getProperties(1, 2));
+  }
+
+  @Test
+  public void test_getPagedRows() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addColumn(STRING, "Name", "B");
+    table.addRows(1000);
+    for (int i = 0; i < 1000; i++) {
+      if (i % 13 != 0)
+        table.setValue(i, 0, (i * 7919) % 97);
+      table.setValue(i, 1, "N" + (i % 7));
+    }
+
+    final DataTableSort[] sort = { new DataTableSort(0, true),
+        new DataTableSort(1, false) };
+    final int[] sorted = table.getSortedRows(sort);
+    assertArrayEquals(Arrays.copyOf(sorted, 50), table.getTopRows(50, sort));
+    assertArrayEquals(Arrays.copyOfRange(sorted, 50, 100),
+        table.getPagedRows(50, 50, sort));
+    assertArrayEquals(Arrays.copyOfRange(sorted, 600, 650),
+        table.getPagedRows(600, 50, sort));
+    assertArrayEquals(Arrays.copyOfRange(sorted, 980, 1000),
+        table.getPagedRows(980, 50, sort));
+    assertArrayEquals(new int[0], table.getPagedRows(1000, 50, sort));
+    assertArrayEquals(sorted, table.getTopRows(2000, sort));
+  }
+
+  @Test
+  public void test_cache() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addRow(3);
+    table.addRow(1);
+    table.addRow(2);
+
+    final int[] sorted = table.getSortedRows(0);
+    assertArrayEquals(new int[] { 1, 2, 0 }, sorted);
+    sorted[0] = 7;
+    assertArrayEquals(new int[] { 1, 2, 0 }, table.getSortedRows(0));
+    assertArrayEquals(new int[] { 2, 0 }, table.getPagedRows(1, 5,
+        new DataTableSort(0, false)));
+    assertEquals(1L, table.getCacheHitCount());
+    assertEquals(1L, table.getCacheMissCount());
+
+    assertArrayEquals(new int[] { 0, 2 }, table.getFilteredRows(
+        new RangeDataTableFilter(NUMBER, 0, 2, 4)));
+    assertArrayEquals(new int[] { 0, 2 }, table.getFilteredRows(
+        new RangeDataTableFilter(NUMBER, 0, 2, 4)));
+    assertEquals(2L, table.getCacheHitCount());
+
+    table.setValue(0, 0, 0);
+    assertArrayEquals(new int[] { 0, 1, 2 }, table.getSortedRows(0));
+    assertArrayEquals(new int[] { 2 }, table.getFilteredRows(
+        new RangeDataTableFilter(NUMBER, 0, 2, 4)));
+    assertEquals(2L, table.getCacheHitCount());
+    assertEquals(4L, table.getCacheMissCount());
+
+    table.setCacheSize(1);
+    table.getFilteredRows(new ValueDataTableFilter(0, 1));
+    table.getSortedRows(0);
+    assertEquals(2L, table.getCacheHitCount());
+    table.getFilteredRows(new ValueDataTableFilter(0, 1));
+    assertEquals(2L, table.getCacheHitCount());
+    table.getFilteredRows(new ValueDataTableFilter(0, 1));
+    assertEquals(3L, table.getCacheHitCount());
+  }
+
+  @Test
+  public void test_row_lazyProperties() throws Exception {
+    final DataTableRow row = new DataTableRow(2);
+    assertEquals(null, row.property("style"));
+    assertEquals(null, row.cell(0).property("style"));
+    assertEquals(false, row.hasProperties());
+    assertEquals(false, row.cell(0).hasProperties());
+
+    row.cell(0).value("Red").setProperty("style", "bold");
+    row.cell(1).value(1);
+    row.setProperty("height", 2);
+    assertEquals(true, row.cell(0).hasProperties());
+    assertEquals(false, row.cell(1).hasProperties());
+
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addColumn(NUMBER);
+    table.addRows(row);
+    assertEquals("bold", table.getProperty(0, 0, "style"));
+    assertEquals(null, table.getProperty(0, 1, "style"));
+    assertEquals(2, table.getRowProperty(0, "height"));
+
+    row.cell(0).release();
+    assertEquals(false, row.cell(0).hasProperties());
+  }
+
+  @Test
+  public void test_insertRows_streaming() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addColumn(STRING, "Name", "B");
+    final List<Integer> values = new ArrayList<Integer>();
+    final Random random = new Random(17);
+    int row = 0;
+    for (int i = 0; i < 5000; i++) {
+      row = Math.max(0, Math.min(values.size(), row + random.nextInt(9) - 4));
+      if (random.nextInt(4) == 0 && row < values.size()) {
+        table.removeRow(row);
+        values.remove(row);
+        continue;
+      }
+
+      final Integer value = i % 11 == 0 ? null : Integer.valueOf(i);
+      table.insertRows(row, 1);
+      table.setValue(row, 0, value);
+      table.setValue(row, 1, "N" + i);
+      table.setFormattedValue(row, 1, "#" + i);
+      values.add(row, value);
+    }
+
+    assertEquals(values.size(), table.getNumberOfRows());
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int i = 0; i < values.size(); i++) {
+      final Integer value = values.get(i);
+      assertEquals(value, table.getValue(i, 0));
+      assertEquals(table.getValue(i, 1),
+          "N" + table.getFormattedValue(i, 1).substring(1));
+      if (value != null) {
+        min = Math.min(min, value.intValue());
+        max = Math.max(max, value.intValue());
+      }
+    }
+    final Range range = table.getColumnRange(0);
+    assertEquals(min, range.minimum());
+    assertEquals(max, range.maximum());
+
+    final int[] sorted = table.getSortedRows(new DataTableSort(0, false));
+    for (int i = 1; i < sorted.length; i++) {
+      final Integer previous = values.get(sorted[i - 1]);
+      final Integer value = values.get(sorted[i]);
+      assertEquals(true, previous == null || previous.compareTo(value) <= 0);
+    }
+  }
+
+  @Test
+  public void test_insertColumn_nullRows() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addColumn(STRING, "Name", "B");
+    table.addRow(3, "Red");
+    table.addRow(1, "Blue");
+    table.addRow(2, "Green");
+
+    table.insertColumn(1, NUMBER, "Derived", "C");
+    assertEquals(3, table.getColumnNullCount(1));
+    assertEquals(null, table.getValue(2, 1));
+    assertEquals("", table.getFormattedValue(2, 1));
+    assertEquals(null, table.getColumnRange(1).minimum());
+    assertArrayEquals(new int[] { 0, 1, 2 }, table.getSortedRows(1));
+
+    table.insertRows(1, 1);
+    table.setValue(3, 1, 7.5);
+    assertEquals(null, table.getValue(1, 1));
+    assertEquals(7.5, table.getValue(3, 1));
+    assertEquals(3, table.getColumnNullCount(1));
+
+    table.removeColumn(1);
+    assertEquals(2, table.getNumberOfColumns());
+    assertEquals("Green", table.getValue(3, 1));
+    assertEquals(2, table.getValue(3, 0));
+  }
+
+  @Test
+  public void test_setValues() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addColumn(STRING, "Name", "B");
+    table.addColumn(DATE, "Date", "C");
+    table.addColumn(BOOLEAN, "Flag", "D");
+    table.addRow(1, "First", new LocalDate(2012, 1, 1), TRUE);
+    table.addRows(3);
+
+    table.setValues(1, 0, new double[] { 2.5, 0.0, 4.5 }, new boolean[] {
+        false, true, false });
+    table.setValues(1, 1, new String[] { "Red", null, "Blue" });
+    table.setValues(1, 2, new long[] { 0L, -1L, 86400000L * 365 }, null);
+    table.setValues(1, 3, new boolean[] { true, false, true }, new boolean[] {
+        false, false, true });
+
+    assertEquals(1, table.getValue(0, 0));
+    assertEquals(2.5, table.getValue(1, 0));
+    assertEquals(null, table.getValue(2, 0));
+    assertEquals(4.5, table.getValue(3, 0));
+    assertEquals(1, table.getColumnNullCount(0));
+    assertEquals(4.5, table.getColumnRange(0).maximum());
+    assertEquals(null, table.getValue(2, 1));
+    assertEquals("Blue", table.getValue(3, 1));
+    assertEquals(new LocalDate(1970, 1, 1), table.getValue(1, 2));
+    assertEquals(new LocalDate(1969, 12, 31), table.getValue(2, 2));
+    assertEquals(new LocalDate(1971, 1, 1), table.getValue(3, 2));
+    assertEquals(FALSE, table.getValue(2, 3));
+    assertEquals(null, table.getValue(3, 3));
+    assertArrayEquals(new int[] { 2, 0, 1, 3 }, table.getSortedRows(0));
+
+    table.setValues(0, 0, new long[] { 7L }, null);
+    assertEquals(7, table.getValue(0, 0));
+    assertEquals(7, table.getColumnRange(0).maximum());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_setValues_wrongType() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addRows(1);
+    table.setValues(0, 0, new double[] { 1.0 }, null);
+  }
+
+  @Test
+  public void test_addRows_iterator() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addColumn(STRING, "Name", "B");
+    table.addRow(1, "First");
+
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    rows.add(new Object[] { 2, "Second" });
+    rows.add(new Object[] { 3 });
+    table.addRows(4, rows.iterator());
+    assertEquals(3, table.getNumberOfRows());
+    assertEquals("Second", table.getValue(1, 1));
+    assertEquals(3, table.getValue(2, 0));
+    assertEquals(null, table.getValue(2, 1));
+  }
+
+  @Test
+  public void test_snapshot_copyOnWrite() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addColumn(STRING, "Name", "B");
+    table.addRow(3, "Red");
+    table.addRow(1, "Blue");
+    table.addRow(2, "Green");
+    table.setProperty(0, 1, "style", "bold");
+    table.setRowProperty(1, "selected", TRUE);
+    table.createIndex(0);
+
+    final DataTable snapshot = table.snapshot();
+    assertEquals(true, snapshot.isReadOnly());
+    final String before = snapshot.toString();
+
+    table.setValue(0, 0, 10);
+    table.setProperty(0, 1, "style", "italic");
+    table.setRowProperty(1, "selected", FALSE);
+    table.setColumnLabel(1, "Colour");
+    table.insertRows(1, 2);
+    table.removeRow(4);
+    table.sort(1);
+
+    assertEquals(before, snapshot.toString());
+    assertEquals(3, snapshot.getNumberOfRows());
+    assertEquals(3, snapshot.getValue(0, 0));
+    assertEquals("bold", snapshot.getProperty(0, 1, "style"));
+    assertEquals(TRUE, snapshot.getRowProperty(1, "selected"));
+    assertEquals("Name", snapshot.getColumnLabel(1));
+    assertArrayEquals(new int[] { 1, 2, 0 }, snapshot.getSortedRows(0));
+    assertArrayEquals(new int[] { 0 }, snapshot.getFilteredRows(
+        new RangeDataTableFilter(NUMBER, 0, 3, null)));
+    assertEquals(3, snapshot.getColumnRange(0).maximum());
+
+    assertEquals(4, table.getNumberOfRows());
+    assertEquals("italic", table.getProperty(3, 1, "style"));
+    assertEquals(10, table.getValue(3, 0));
+    assertEquals(Collections.emptyMap(), snapshot.getProperties(1, 1));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_readOnly() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addRow(1);
+    table.snapshot().setValue(0, 0, 2);
+  }
+
+  @Test
+  public void test_snapshot_concurrentReads() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+    table.addColumn(STRING, "Name", "B");
+    for (int i = 0; i < 5000; i++)
+      table.addRow((i * 7919) % 997, "N" + (i % 13));
+    table.createIndex(1);
+
+    // Without the cache every filter is looked up in the index
+    final DataTable snapshot = table.snapshot();
+    snapshot.setCacheSize(0);
+    final int[] sorted = snapshot.getSortedRows(1, 0);
+    final ValueDataTableFilter filter = new ValueDataTableFilter(1, "N7");
+    final int[] filtered = snapshot.getFilteredRows(filter);
+    final RangeDataTableFilter range = new RangeDataTableFilter(STRING, 1,
+        "N3", "N11");
+    final int[] ranged = snapshot.getFilteredRows(range);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int t = 0; t < 8; t++) {
+      results.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          for (int i = 0; i < 20; i++) {
+            if (!Arrays.equals(sorted, snapshot.getSortedRows(1, 0))
+                || !Arrays.equals(filtered, snapshot.getFilteredRows(filter))
+                || !Arrays.equals(ranged, snapshot.getFilteredRows(range))
+                || snapshot.getColumnNullCount(0) != 0)
+              return Boolean.FALSE;
+          }
+          return Boolean.TRUE;
+        }
+      }));
+    }
+
+    for (int i = 0; i < 2000; i++) {
+      table.insertRows(i, 1);
+      table.setValue(i, 0, -i);
+      table.setValue(i, 1, "N" + i);
+    }
+
+    for (Future<Boolean> result : results)
+      assertEquals(TRUE, result.get());
+    executor.shutdown();
+    assertEquals(5000, snapshot.getNumberOfRows());
+    assertEquals(7000, table.getNumberOfRows());
+  }
+
+  @Test
+  public void test_getValue_numberKind() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addRow(5L);
+    table.addRow(5);
+    table.addRow(5.0);
+    table.addRow(9007199254740993L);
+
+    assertEquals(Long.valueOf(5L), table.getValue(0, 0));
+    assertEquals(Integer.valueOf(5), table.getValue(1, 0));
+    assertEquals(Double.valueOf(5.0), table.getValue(2, 0));
+    assertEquals(Long.valueOf(9007199254740993L), table.getValue(3, 0));
+    assertArrayEquals(new int[] { 0 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, 5L)));
+    assertArrayEquals(new int[] { 3 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, 9007199254740993L)));
+
+    table.createHashIndex(0);
+    assertArrayEquals(new int[] { 0 }, table.getFilteredRows(
+        new ValueDataTableFilter(0, 5L)));
+
+    table.insertRows(0, 1);
+    table.removeRow(0);
+    final DataTable copy = DataTable.fromJson(new StringReader(table
+        .toString()));
+    assertEquals(Long.valueOf(9007199254740993L), copy.getValue(3, 0));
+
+    FileOutputStream.create(file.path(), DataTableSerializer.instance())
+        .write(Collections.singletonList(table).iterator());
+    final DataTable mapped = DataTableDeserializer.map(file.path());
+    assertEquals(Long.valueOf(5L), mapped.getValue(0, 0));
+    assertEquals(Integer.valueOf(5), mapped.getValue(1, 0));
+    assertEquals(Long.valueOf(9007199254740993L), mapped.getValue(3, 0));
+  }
+
+  @Test
+  public void test_getValue_numberKindBoxed() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addRow((short) 3);
+    table.addRow((byte) 2);
+    table.addRow(1.5f);
+    table.addRow(4);
+
+    assertEquals(Short.valueOf((short) 3), table.getValue(0, 0));
+    assertEquals(Byte.valueOf((byte) 2), table.getValue(1, 0));
+    assertEquals(Float.valueOf(1.5f), table.getValue(2, 0));
+    assertEquals(Integer.valueOf(4), table.getValue(3, 0));
+    assertArrayEquals(new int[] { 2, 1, 0, 3 }, table.getSortedRows(0));
+
+    table.setValue(0, 0, 3);
+    assertEquals(Integer.valueOf(3), table.getValue(0, 0));
+    table.setValue(0, 0, (short) 3);
+    table.insertRows(0, 1);
+    table.removeRow(0);
+
+    FileOutputStream.create(file.path(), DataTableSerializer.instance())
+        .write(Collections.singletonList(table).iterator());
+    final DataTable mapped = DataTableDeserializer.map(file.path());
+    assertEquals(Short.valueOf((short) 3), mapped.getValue(0, 0));
+    assertEquals(Byte.valueOf((byte) 2), mapped.getValue(1, 0));
+    assertEquals(Float.valueOf(1.5f), mapped.getValue(2, 0));
+    assertEquals(Integer.valueOf(4), mapped.getValue(3, 0));
+  }
+
+  @Test
+  public void test_getFilteredRows_nullStrings() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(STRING);
+    table.addRows(3);
+    table.setValue(1, 0, "Red");
+    table.setValue(1, 0, (String) null);
+
+    assertArrayEquals(new int[] { 0, 1, 2 }, table.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, null, null)));
+    assertArrayEquals(new int[] { 0, 1, 2 }, table.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, null, "Blue")));
+    assertArrayEquals(new int[0], table.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, "Blue", null)));
+
+    final DataTable empty = new DataTable();
+    empty.addColumn(STRING);
+    empty.addRow();
+    assertArrayEquals(new int[] { 0 }, empty.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, null, null)));
+
+    FileOutputStream.create(file.path(), DataTableSerializer.instance())
+        .write(Collections.singletonList(empty).iterator());
+    final DataTable mapped = DataTableDeserializer.map(file.path());
+    assertArrayEquals(new int[] { 0 }, mapped.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, null, null)));
+    assertArrayEquals(new int[0], mapped.getFilteredRows(
+        new RangeDataTableFilter(STRING, 0, "Blue", null)));
+  }
+
+  @Test
+  public void test_fromJson_chunkBoundary() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER, "Value", "A");
+
+    DataTable copy = DataTable.fromJson(new StringReader(table.toString()));
+    assertEquals(0, copy.getNumberOfRows());
+    assertEquals(table.toString(), copy.toString());
+
+    for (int i = 0; i < 1024; i++)
+      table.addRow(i);
+
+    copy = DataTable.fromJson(new StringReader(table.toString()));
+    assertEquals(1024, copy.getNumberOfRows());
+    assertEquals(table.toString(), copy.toString());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setProperty() throws Exception {
+    snapshot().setProperty(0, 0, "style", "bold");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setProperties() throws Exception {
+    snapshot().setProperties(0, 0,
+        Collections.<String, Object> singletonMap("style", "bold"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setRowProperty() throws Exception {
+    snapshot().setRowProperty(0, "selected", TRUE);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setRowProperties() throws Exception {
+    snapshot().setRowProperties(0,
+        Collections.<String, Object> singletonMap("selected", TRUE));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setTableProperty() throws Exception {
+    snapshot().setTableProperty("title", "Snapshot");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setTableProperties() throws Exception {
+    snapshot().setTableProperties(
+        Collections.<String, Object> singletonMap("title", "Snapshot"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setColumnLabel() throws Exception {
+    snapshot().setColumnLabel(0, "Name");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setColumnProperty() throws Exception {
+    snapshot().setColumnProperty(0, "width", 10);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setColumnProperties() throws Exception {
+    snapshot().setColumnProperties(0,
+        Collections.<String, Object> singletonMap("width", 10));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_setFormattedValue() throws Exception {
+    snapshot().setFormattedValue(0, 0, "one");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_createIndex() throws Exception {
+    snapshot().createIndex(0);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_getProperties() throws Exception {
+    snapshot().getProperties(0, 0).put("style", "bold");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_getTableProperties() throws Exception {
+    snapshot().getTableProperties().put("title", "Snapshot");
+  }
+
+  @Test
+  public void test_snapshot_getPropertiesWritable() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addRow(1);
+    table.addRow(2);
+    table.setProperty(0, 0, "style", "bold");
+    table.setRowProperty(0, "height", 2);
+    final DataTable snapshot = table.snapshot();
+
+    table.getProperties(0, 0).put("style", "italic");
+    table.getProperties(1, 0).put("style", "underline");
+    table.getRowProperties(0).put("height", 3);
+    table.getRowProperties(1).put("height", 4);
+    assertEquals(false, table.vector(0) == snapshot.vector(0));
+    assertEquals("italic", table.getProperty(0, 0, "style"));
+    assertEquals("underline", table.getProperty(1, 0, "style"));
+    assertEquals(3, table.getRowProperty(0, "height"));
+    assertEquals(4, table.getRowProperty(1, "height"));
+
+    assertEquals("bold", snapshot.getProperty(0, 0, "style"));
+    assertEquals(Collections.emptyMap(), snapshot.getProperties(1, 0));
+    assertEquals(2, snapshot.getRowProperty(0, "height"));
+    assertEquals(Collections.emptyMap(), snapshot.getRowProperties(1));
+  }
+
+  @Test
+  public void test_toJson_writer() throws Exception {
+    final DataTable table = new DataTable();
+    table.addColumn(new DataTableColumn(STRING).label("<Name>").id("A"));
+    table.addColumn(NUMBER);
+    table.addColumn(BOOLEAN);
+    table.addColumn(DATE);
+    table.addColumn(TIME_OF_DAY);
+    table.addColumn(DATE_TIME);
+
+    table.addRow("Tom & Jerry", 10, TRUE, new LocalDate(2012, 1, 1),
+        new LocalTime(13, 23, 15, 37), new LocalDateTime(2012, 1, 1, 13, 23,
+            15, 37));
+    table.addRow("Blue", 15.7);
+    table.addRows(1);
+    table.setFormattedValue(1, 1, "15.70");
+
+    final StringWriter writer = new StringWriter();
+    table.toJson(writer);
+    assertEquals(new Gson().toJson(table.toJson()), writer.toString());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    table.toJson(out);
+    assertEquals(writer.toString(), out.toString("UTF-8"));
+  }
+
+  private DataTable snapshot() {
+    final DataTable table = new DataTable();
+    table.addColumn(NUMBER);
+    table.addRow(1);
+    return table.snapshot();
+  }
+
   private String jsonToString(JsonElement element) {
     return createGson().toJson(element) + "\n";
   }